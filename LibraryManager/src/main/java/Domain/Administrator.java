@@ -6,6 +6,10 @@ public class Administrator extends User {
         super(username);
     }
 
+    Administrator(String username, int userId) {
+        super(username, userId);
+    }
+
     @Override
     public boolean isAdmin() {
         return true;
@@ -1,26 +1,64 @@
 package Domain;
 
+import java.io.PrintStream;
+import java.lang.invoke.VarHandle;
+import java.nio.charset.StandardCharsets;
 import java.sql.Date;
 
 public class Book {
+
+    /* Borrower ID of a book that is not on loan */
+    public static final int NO_BORROWER = -1;
+
+    /* Length of a loan and of every extension */
+    static final long LOAN_DAYS_MILLIS = 7 * 24L * 60 * 60 * 1000;
+
     protected int ID;
     protected int ISBN;
     protected String title;
     protected String author;
+    protected int titleId;
+    protected int authorId;
     protected int yearPublished;
     private User borrower;
+    private int borrowerId = NO_BORROWER;
     private Date limitReturnDate;
     private boolean isExceeded;
-
+    // Table of the owning library, told of every loan change; null for a standalone book
+    private BookTable table;
+    // Sequence lock over the loan fields, odd while they are written, see getLoan
+    private volatile int loanVersion;
+    // UTF-8 catalogue row, rendered when the book is created, see writeCatalogueRow
+    private byte[] catalogueRow;
+
+    /* A book outside any library; it has no dictionary IDs */
     public Book(int ID, int ISBN, String title, String author, int yearPublished) {
         this.ID = ID;
         this.ISBN = ISBN;
+        this.titleId = StringDictionary.ABSENT;
+        this.authorId = StringDictionary.ABSENT;
         this.title = title;
         this.author = author;
         this.yearPublished = yearPublished;
         this.borrower = null;
         this.limitReturnDate = null;
         this.isExceeded = false;
+        this.catalogueRow = renderCatalogueRow(ID, title, author, yearPublished);
+    }
+
+    /* A book of a library's table, interning title and author in the library's dictionary */
+    Book(int ID, int ISBN, String title, String author, int yearPublished, BookTable table) {
+        this(ID, ISBN, title, author, yearPublished);
+        this.titleId = table.strings.intern(title);
+        this.authorId = table.strings.intern(author);
+        this.title = table.strings.get(titleId);
+        this.author = table.strings.get(authorId);
+        this.table = table;
+    }
+
+    /* For views whose data lives in a storage backend, see ColumnarBookStore */
+    protected Book(int ID) {
+        this.ID = ID;
     }
 
     public int getID() {
@@ -39,14 +77,71 @@ public class Book {
         return author;
     }
 
+    /* ID of the title in the library's string dictionary */
+    public int getTitleId() {
+        return titleId;
+    }
+
+    /* ID of the author in the library's string dictionary */
+    public int getAuthorId() {
+        return authorId;
+    }
+
     public int getYearPublished() {
         return yearPublished;
     }
 
+    /* Returns "ID<tab>title<tab>author<tab>year", the part of a listing row that never changes */
+    public String getCatalogueRow() {
+        return getID() + "\t" + getTitle() + "\t" + getAuthor() + "\t" + getYearPublished();
+    }
+
+    /*
+     * Writes the catalogue row to a UTF-8 stream as it was rendered when the book
+     * was stored, a plain byte copy. Streams in other charsets print
+     * getCatalogueRow instead.
+     */
+    public void writeCatalogueRow(PrintStream out) {
+        out.write(catalogueRow, 0, catalogueRow.length);
+    }
+
+    /* UTF-8 bytes of a catalogue row, for stores that keep it next to the book's data */
+    static byte[] renderCatalogueRow(int id, String title, String author, int yearPublished) {
+        return (id + "\t" + title + "\t" + author + "\t" + yearPublished).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /*
+     * Returns the current loan, or null if the book is available. Loan changes
+     * happen under the library lock while readers do not lock, so read the loan
+     * once when several of its attributes are needed: the separate getters below
+     * may each see a different loan if the book is returned in between.
+     */
+    public Loan getLoan() {
+        while (true) {
+            int version = loanVersion;
+            if ((version & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            User user = borrower;
+            Date limit = limitReturnDate;
+            boolean exceeded = isExceeded;
+            VarHandle.loadLoadFence();
+            if (loanVersion == version) {
+                return user == null ? null : new Loan(user, limit, exceeded);
+            }
+        }
+    }
+
     public User getBorrower() {
         return borrower;
     }
 
+    /* User ID of the borrower, or NO_BORROWER */
+    public int getBorrowerId() {
+        return borrowerId;
+    }
+
     public Date getLimitReturnDate() {
         return limitReturnDate;
     }
@@ -64,16 +159,36 @@ public class Book {
 
     /* Changes book to borrowed by a user with a limit return date */
     public void borrow(User username) {
+        borrow(username, System.currentTimeMillis());
+    }
+
+    /* Variant taking the loan start from a clock, in epoch milliseconds */
+    public void borrow(User username, long now) {
+        if (table != null) {
+            username = table.users.register(username);
+        }
+        beginLoanWrite();
         this.borrower = username;
-        this.limitReturnDate = addDays(new Date(System.currentTimeMillis()), 7);
+        this.borrowerId = username.getUserId();
+        this.limitReturnDate = addDays(new Date(now), 7);
         this.isExceeded = false;
+        endLoanWrite();
+    }
+
+    /* Returns true if the book is on loan and its limit return date is before now */
+    public boolean isOverdue(long now) {
+        Date limit = getLimitReturnDate();
+        return limit != null && limit.getTime() < now;
     }
 
     /* Changes book to returned (clears all loan information) */
     public void returnBook() {
+        beginLoanWrite();
         this.borrower = null;
+        this.borrowerId = NO_BORROWER;
         this.limitReturnDate = null;
         this.isExceeded = false;
+        endLoanWrite();
     }
 
     /* Extends the loan limit date and marks the book as exceeded */
@@ -81,8 +196,23 @@ public class Book {
         if (this.limitReturnDate == null) {
             return; // Cannot extend loan if the book is not borrowed
         }
+        beginLoanWrite();
         this.limitReturnDate = addDays(this.limitReturnDate, 7);
         this.isExceeded = true;
+        endLoanWrite();
+    }
+
+    /* Marks the loan fields as being written until endLoanWrite */
+    private void beginLoanWrite() {
+        loanVersion++;
+        VarHandle.storeStoreFence();
+    }
+
+    private void endLoanWrite() {
+        loanVersion++;
+        if (table != null) {
+            table.loanWritten();
+        }
     }
 
     /* Helper method to add days to a date */
@@ -0,0 +1,93 @@
+package Domain;
+
+import java.util.List;
+
+/*
+ * One page of a listing, with the cursor that resumes after it. A cursor is
+ * opaque to clients; it encodes the position the next page starts at (the ID,
+ * plus the sort key for sorted listings), so resuming does not depend on how
+ * many books were added or removed before it.
+ */
+public class BookPage {
+
+    private static final String CURSOR_PREFIX = "c";
+    private static final String SORTED_CURSOR_PREFIX = "s";
+
+    private final List<Book> books;
+    private final String nextCursor;
+
+    /* nextId is the ID the following page starts at, or -1 on the last page */
+    public BookPage(List<Book> books, int nextId) {
+        this(books, nextId >= 0 ? encodeCursor(nextId) : null);
+    }
+
+    /* nextCursor is null on the last page */
+    public BookPage(List<Book> books, String nextCursor) {
+        this.books = books;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Book> getBooks() {
+        return books;
+    }
+
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+
+    /* Cursor of the following page, or null on the last page */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public static String encodeCursor(int id) {
+        return CURSOR_PREFIX + Integer.toString(id, 36);
+    }
+
+    /* Returns the ID a cursor resumes at, throws IllegalArgumentException if it is malformed */
+    public static int decodeCursor(String cursor) {
+        if (cursor == null || !cursor.startsWith(CURSOR_PREFIX)) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        try {
+            int id = Integer.parseInt(cursor.substring(CURSOR_PREFIX.length()), 36);
+            if (id < 0) {
+                throw new IllegalArgumentException("Invalid cursor: " + cursor);
+            }
+            return id;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+    }
+
+    /* Whether the string is a cursor of either kind */
+    public static boolean isCursor(String cursor) {
+        try {
+            if (cursor != null && cursor.startsWith(SORTED_CURSOR_PREFIX)) {
+                decodeSortedCursor(cursor);
+            } else {
+                decodeCursor(cursor);
+            }
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /* Cursor of a sorted listing, resuming at the given sort index entry */
+    static String encodeSortedCursor(long entry) {
+        return SORTED_CURSOR_PREFIX + Long.toString(entry, 36);
+    }
+
+    /* Returns the sort index entry of a sorted cursor, throws IllegalArgumentException if it is malformed */
+    static long decodeSortedCursor(String cursor) {
+        if (cursor == null || !cursor.startsWith(SORTED_CURSOR_PREFIX)) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        try {
+            return Long.parseLong(cursor.substring(SORTED_CURSOR_PREFIX.length()), 36);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package Domain;
+
+import java.util.Iterator;
+import java.util.List;
+
+/*
+ * Storage backend of a Library. Books are addressed by ID and handed out in
+ * ascending ID order; identifiers are appended in increasing order only. All
+ * mutating methods are called with the library's writer lock held, reads may
+ * happen concurrently.
+ */
+public interface BookStore {
+
+    /* First identifier this store can hold */
+    int getFirstId();
+
+    /*
+     * Called by the owning library before any book is added: titles and authors
+     * are interned in its dictionary and borrowers resolved through its registry.
+     * A store belongs to one library only.
+     */
+    void attach(StringDictionary strings, UserRegistry users);
+
+    /*
+     * Number of loan changes made to the stored books so far. A loan may also be
+     * changed on the book itself rather than through the library, which the
+     * library notices by comparing this with the count it last saw.
+     */
+    int getLoanWrites();
+
+    /* Creates and stores a book whose ID lies beyond every ID stored so far */
+    Book add(int id, int isbn, String title, String author, int yearPublished);
+
+    /* Prepares for count more books about to be added, e.g. by a bulk import */
+    default void reserve(int count) {
+    }
+
+    /* Returns the book with the given ID, or null if absent */
+    Book get(int id);
+
+    /* Removes the book with the given ID and returns it, or null if absent */
+    Book remove(int id);
+
+    /* Removes every book with an ID in [first, last], returned in ID order */
+    Book[] removeRange(int first, int last);
+
+    /* A point-in-time view of the stored books in ID order */
+    Snapshot snapshot();
+
+    interface Snapshot extends List<Book> {
+
+        Book getById(int id);
+
+        /* Iterates the books with an ID of at least fromId, in ID order */
+        Iterator<Book> iteratorFrom(int fromId);
+    }
+}
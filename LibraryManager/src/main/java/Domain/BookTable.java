@@ -0,0 +1,309 @@
+package Domain;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/*
+ * Copy-on-write book storage addressed by ID. Book i lives in slot
+ * (i - firstId) of fixed-size chunks, removed books leave an empty slot.
+ *
+ * Writers (serialised by the Library) publish a new immutable Snapshot after
+ * every change. Appends only fill slots beyond the limit of older snapshots, so
+ * they copy nothing but the chunk directory when a chunk fills up; a removal
+ * copies the one chunk it touches. Readers never lock: they work on the
+ * snapshot they obtained and never see later changes.
+ */
+public class BookTable implements BookStore {
+
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final int firstId;
+    private volatile Snapshot current;
+    // Dictionary and user registry of the owning library, see attach
+    StringDictionary strings;
+    UserRegistry users;
+    // Loan changes made to the books of this table, see getLoanWrites
+    private volatile int loanWrites;
+
+    public BookTable(int firstId) {
+        this.firstId = firstId;
+        this.current = new Snapshot(firstId, new Book[0][], new int[] { 0 }, 0, 0);
+    }
+
+    @Override
+    public int getFirstId() {
+        return firstId;
+    }
+
+    @Override
+    public void attach(StringDictionary strings, UserRegistry users) {
+        if (this.strings != null && this.strings != strings) {
+            throw new IllegalStateException("Book store already belongs to a library");
+        }
+        this.strings = strings;
+        this.users = users;
+    }
+
+    @Override
+    public int getLoanWrites() {
+        return loanWrites;
+    }
+
+    /* Counts a loan change of one of the books, called by the book */
+    void loanWritten() {
+        loanWrites++;
+    }
+
+    /* The current point-in-time view, stable for as long as the caller keeps it */
+    @Override
+    public Snapshot snapshot() {
+        return current;
+    }
+
+    @Override
+    public Book get(int id) {
+        return current.getById(id);
+    }
+
+    @Override
+    public Book add(int id, int isbn, String title, String author, int yearPublished) {
+        Book book = new Book(id, isbn, title, author, yearPublished, this);
+        append(book);
+        return book;
+    }
+
+    /* Stores a book in the slot of its ID, which must lie beyond every used slot */
+    public void append(Book book) {
+        Snapshot s = current;
+        int slot = book.getID() - firstId;
+        if (slot < s.limit) {
+            throw new IllegalArgumentException("ID " + book.getID() + " is not beyond the table end");
+        }
+
+        int chunk = slot >> CHUNK_BITS;
+        int last = lastChunk(s);
+        Book[][] chunks = s.chunks;
+        int[] before = s.before;
+        if (chunk >= chunks.length) {
+            chunks = Arrays.copyOf(chunks, Math.max(chunk + 1, chunks.length + (chunks.length >> 1) + 1));
+        }
+        if (before.length < chunks.length + 1) {
+            before = Arrays.copyOf(before, chunks.length + 1);
+        }
+        if (chunks[chunk] == null) {
+            if (chunks == s.chunks) {
+                chunks = chunks.clone();
+            }
+            chunks[chunk] = new Book[CHUNK_SIZE];
+        }
+
+        // Slots and counts beyond the last chunk of s are never read through s,
+        // so they can be written in place
+        for (int k = last + 1; k <= chunk; k++) {
+            before[k] = s.size;
+        }
+        chunks[chunk][slot & CHUNK_MASK] = book;
+        current = new Snapshot(firstId, chunks, before, slot + 1, s.size + 1);
+    }
+
+    /* Grows the chunk directory once for a bulk append instead of step by step */
+    @Override
+    public void reserve(int count) {
+        Snapshot s = current;
+        long chunks = ((long) s.limit + count + CHUNK_SIZE - 1) >> CHUNK_BITS;
+        if (chunks > s.chunks.length && chunks < Integer.MAX_VALUE) {
+            // Directory entries beyond the last chunk of s are never read through s
+            current = new Snapshot(firstId, Arrays.copyOf(s.chunks, (int) chunks),
+                    Arrays.copyOf(s.before, (int) chunks + 1), s.limit, s.size);
+        }
+    }
+
+    @Override
+    public Book remove(int id) {
+        Book[] removed = removeRange(id, id);
+        return removed.length == 0 ? null : removed[0];
+    }
+
+    @Override
+    public Book[] removeRange(int first, int last) {
+        Snapshot s = current;
+        long from = Math.max((long) first - firstId, 0);
+        long to = Math.min((long) last - firstId, s.limit - 1L);
+        if (from > to) {
+            return new Book[0];
+        }
+
+        int firstChunk = (int) (from >> CHUNK_BITS);
+        int lastChunk = (int) (to >> CHUNK_BITS);
+        Book[][] chunks = s.chunks.clone();
+        int[] before = s.before.clone();
+        Book[] removed = new Book[(int) Math.min(to - from + 1, s.size)];
+        int count = 0;
+        for (int chunk = firstChunk; chunk <= lastChunk; chunk++) {
+            // Books removed so far all lie in chunks before this one
+            before[chunk] -= count;
+            Book[] original = chunks[chunk];
+            if (original == null) {
+                continue;
+            }
+            int start = chunk == firstChunk ? (int) (from & CHUNK_MASK) : 0;
+            int end = chunk == lastChunk ? (int) (to & CHUNK_MASK) : CHUNK_MASK;
+            Book[] copy = null;
+            for (int i = start; i <= end; i++) {
+                if (original[i] != null) {
+                    if (copy == null) {
+                        copy = original.clone();
+                    }
+                    removed[count++] = copy[i];
+                    copy[i] = null;
+                }
+            }
+            if (copy != null) {
+                // Drop chunks that became empty, except the one appends still go to
+                chunks[chunk] = isEmpty(copy) && chunk != lastChunk(s) ? null : copy;
+            }
+        }
+        if (count == 0) {
+            return new Book[0];
+        }
+        for (int k = lastChunk + 1; k <= lastChunk(s); k++) {
+            before[k] -= count;
+        }
+
+        current = new Snapshot(firstId, chunks, before, s.limit, s.size - count);
+        return Arrays.copyOf(removed, count);
+    }
+
+    private static boolean isEmpty(Book[] chunk) {
+        for (Book b : chunk) {
+            if (b != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int lastChunk(Snapshot s) {
+        return s.limit == 0 ? -1 : (s.limit - 1) >> CHUNK_BITS;
+    }
+
+    /* Immutable view of the table at one point in time, in ascending ID order */
+    public static final class Snapshot extends AbstractList<Book> implements BookStore.Snapshot {
+
+        private final int firstId;
+        private final Book[][] chunks;
+        // before[k]: live books in chunks [0, k), valid for k up to the last chunk
+        private final int[] before;
+        private final int limit;
+        private final int size;
+
+        private Snapshot(int firstId, Book[][] chunks, int[] before, int limit, int size) {
+            this.firstId = firstId;
+            this.chunks = chunks;
+            this.before = before;
+            this.limit = limit;
+            this.size = size;
+        }
+
+        @Override
+        public Book getById(int id) {
+            long slot = (long) id - firstId;
+            if (slot < 0 || slot >= limit) {
+                return null;
+            }
+            Book[] chunk = chunks[(int) (slot >> CHUNK_BITS)];
+            return chunk == null ? null : chunk[(int) (slot & CHUNK_MASK)];
+        }
+
+        /* Highest ID ever stored plus one, as seen by this snapshot */
+        public int getIdLimit() {
+            return firstId + limit;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        /* Positional access: locates the chunk by its live count, then scans it */
+        @Override
+        public Book get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            int last = lastChunk(this);
+            int low = 0;
+            int high = last;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (before[mid] <= index) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            int remaining = index - before[low];
+            for (int k = low; k <= last; k++) {
+                Book[] chunk = chunks[k];
+                if (chunk == null) {
+                    continue;
+                }
+                int end = k == last ? ((limit - 1) & CHUNK_MASK) : CHUNK_MASK;
+                for (int i = 0; i <= end; i++) {
+                    if (chunk[i] != null && remaining-- == 0) {
+                        return chunk[i];
+                    }
+                }
+            }
+            throw new IllegalStateException("Snapshot counts are inconsistent");
+        }
+
+        @Override
+        public Iterator<Book> iterator() {
+            return iteratorFrom(firstId);
+        }
+
+        @Override
+        public Iterator<Book> iteratorFrom(int fromId) {
+            long start = Math.max((long) fromId - firstId, 0);
+            return new Iterator<Book>() {
+                private long slot = start;
+                private Book next = advance();
+
+                private Book advance() {
+                    while (slot < limit) {
+                        Book[] chunk = chunks[(int) (slot >> CHUNK_BITS)];
+                        if (chunk == null) {
+                            slot = ((slot >> CHUNK_BITS) + 1) << CHUNK_BITS;
+                            continue;
+                        }
+                        Book b = chunk[(int) (slot++ & CHUNK_MASK)];
+                        if (b != null) {
+                            return b;
+                        }
+                    }
+                    return null;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public Book next() {
+                    if (next == null) {
+                        throw new NoSuchElementException();
+                    }
+                    Book b = next;
+                    next = advance();
+                    return b;
+                }
+            };
+        }
+    }
+}
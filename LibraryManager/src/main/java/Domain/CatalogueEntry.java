@@ -0,0 +1,39 @@
+package Domain;
+
+/* One title of a bulk import: a book and the number of copies to add, see Library.importCatalogue */
+public class CatalogueEntry {
+
+    private final int isbn;
+    private final String title;
+    private final String author;
+    private final int yearPublished;
+    private final int copies;
+
+    public CatalogueEntry(int isbn, String title, String author, int yearPublished, int copies) {
+        this.isbn = isbn;
+        this.title = title;
+        this.author = author;
+        this.yearPublished = yearPublished;
+        this.copies = copies;
+    }
+
+    public int getIsbn() {
+        return isbn;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getAuthor() {
+        return author;
+    }
+
+    public int getYearPublished() {
+        return yearPublished;
+    }
+
+    public int getCopies() {
+        return copies;
+    }
+}
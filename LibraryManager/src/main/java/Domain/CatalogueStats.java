@@ -0,0 +1,45 @@
+package Domain;
+
+/* Point-in-time catalogue counters, see Library.getStats */
+public class CatalogueStats {
+
+    private final int copies;
+    private final int isbns;
+    private final int borrowed;
+    private final int extended;
+    private final int overdue;
+
+    public CatalogueStats(int copies, int isbns, int borrowed, int extended, int overdue) {
+        this.copies = copies;
+        this.isbns = isbns;
+        this.borrowed = borrowed;
+        this.extended = extended;
+        this.overdue = overdue;
+    }
+
+    /* Sum of the counters of both, e.g. of two partitions */
+    public CatalogueStats plus(CatalogueStats other) {
+        return new CatalogueStats(copies + other.copies, isbns + other.isbns, borrowed + other.borrowed,
+                extended + other.extended, overdue + other.overdue);
+    }
+
+    public int getCopies() {
+        return copies;
+    }
+
+    public int getIsbns() {
+        return isbns;
+    }
+
+    public int getBorrowed() {
+        return borrowed;
+    }
+
+    public int getExtended() {
+        return extended;
+    }
+
+    public int getOverdue() {
+        return overdue;
+    }
+}
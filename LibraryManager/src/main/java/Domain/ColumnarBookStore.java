@@ -0,0 +1,228 @@
+package Domain;
+
+import java.io.PrintStream;
+import java.sql.Date;
+
+/*
+ * Struct-of-arrays book storage. Every attribute is a column of primitives,
+ * split into fixed-size chunks that never move once allocated; the ID is implied
+ * by the row (row = ID - firstId). Titles and authors are stored as IDs of the
+ * library's string dictionary, borrowers as user IDs. The UTF-8 catalogue row
+ * of each book is rendered when it is added and kept in a column of its own.
+ *
+ * Books handed out are lightweight views over a row, created on demand. A scan
+ * walks the live-row bitset and the columns sequentially instead of chasing one
+ * heap object per book.
+ */
+public class ColumnarBookStore extends RowBookStore {
+
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    // Column chunks, replaced as a whole (directory only) when the store grows
+    private volatile Columns columns = new Columns(0);
+
+    public ColumnarBookStore(int firstId) {
+        super(firstId);
+    }
+
+    /* Parallel column chunks; chunk k holds rows [k * CHUNK_SIZE, (k + 1) * CHUNK_SIZE) */
+    private static final class Columns {
+        final int[][] isbn;
+        final int[][] year;
+        final int[][] title;
+        final int[][] author;
+        final int[][] borrower;
+        final long[][] due;
+        final boolean[][] exceeded;
+        final byte[][][] catalogueRow;
+
+        Columns(int chunks) {
+            isbn = new int[chunks][];
+            year = new int[chunks][];
+            title = new int[chunks][];
+            author = new int[chunks][];
+            borrower = new int[chunks][];
+            due = new long[chunks][];
+            exceeded = new boolean[chunks][];
+            catalogueRow = new byte[chunks][][];
+        }
+
+        Columns grow(int chunks) {
+            Columns c = new Columns(chunks);
+            int n = isbn.length;
+            System.arraycopy(isbn, 0, c.isbn, 0, n);
+            System.arraycopy(year, 0, c.year, 0, n);
+            System.arraycopy(title, 0, c.title, 0, n);
+            System.arraycopy(author, 0, c.author, 0, n);
+            System.arraycopy(borrower, 0, c.borrower, 0, n);
+            System.arraycopy(due, 0, c.due, 0, n);
+            System.arraycopy(exceeded, 0, c.exceeded, 0, n);
+            System.arraycopy(catalogueRow, 0, c.catalogueRow, 0, n);
+            for (int k = n; k < chunks; k++) {
+                c.isbn[k] = new int[CHUNK_SIZE];
+                c.year[k] = new int[CHUNK_SIZE];
+                c.title[k] = new int[CHUNK_SIZE];
+                c.author[k] = new int[CHUNK_SIZE];
+                c.borrower[k] = new int[CHUNK_SIZE];
+                c.due[k] = new long[CHUNK_SIZE];
+                c.exceeded[k] = new boolean[CHUNK_SIZE];
+                c.catalogueRow[k] = new byte[CHUNK_SIZE][];
+            }
+            return c;
+        }
+    }
+
+    @Override
+    protected void writeRow(int row, int isbn, String title, String author, int yearPublished) {
+        Columns c = columns;
+        int chunk = row >> CHUNK_BITS;
+        if (chunk >= c.isbn.length) {
+            c = c.grow(Math.max(chunk + 1, c.isbn.length * 2));
+        }
+        int i = row & CHUNK_MASK;
+        c.isbn[chunk][i] = isbn;
+        c.year[chunk][i] = yearPublished;
+        c.title[chunk][i] = strings.intern(title);
+        c.author[chunk][i] = strings.intern(author);
+        c.borrower[chunk][i] = NO_BORROWER;
+        c.due[chunk][i] = NO_DUE_DATE;
+        c.exceeded[chunk][i] = false;
+        c.catalogueRow[chunk][i] = Book.renderCatalogueRow(firstId + row, title, author, yearPublished);
+        columns = c;
+    }
+
+    @Override
+    protected Book view(int id) {
+        return new ColumnarBook(id);
+    }
+
+    // ------------ Book view ------------
+
+    /* A book that reads and writes its row of the columns */
+    private final class ColumnarBook extends Book {
+
+        private final int chunk;
+        private final int index;
+
+        ColumnarBook(int id) {
+            super(id);
+            int row = id - firstId;
+            this.chunk = row >> CHUNK_BITS;
+            this.index = row & CHUNK_MASK;
+        }
+
+        @Override
+        public int getISBN() {
+            return columns.isbn[chunk][index];
+        }
+
+        @Override
+        public String getTitle() {
+            return strings.get(columns.title[chunk][index]);
+        }
+
+        @Override
+        public int getTitleId() {
+            return columns.title[chunk][index];
+        }
+
+        @Override
+        public String getAuthor() {
+            return strings.get(columns.author[chunk][index]);
+        }
+
+        @Override
+        public int getAuthorId() {
+            return columns.author[chunk][index];
+        }
+
+        @Override
+        public int getYearPublished() {
+            return columns.year[chunk][index];
+        }
+
+        @Override
+        public void writeCatalogueRow(PrintStream out) {
+            byte[] row = columns.catalogueRow[chunk][index];
+            out.write(row, 0, row.length);
+        }
+
+        @Override
+        public Loan getLoan() {
+            while (true) {
+                int version = beginLoanRead();
+                Columns c = columns;
+                int borrower = c.borrower[chunk][index];
+                long due = c.due[chunk][index];
+                boolean exceeded = c.exceeded[chunk][index];
+                if (loanReadValid(version)) {
+                    if (borrower == NO_BORROWER) {
+                        return null;
+                    }
+                    return new Loan(users.get(borrower), due == NO_DUE_DATE ? null : new Date(due), exceeded);
+                }
+            }
+        }
+
+        @Override
+        public User getBorrower() {
+            return users.get(columns.borrower[chunk][index]);
+        }
+
+        @Override
+        public int getBorrowerId() {
+            return columns.borrower[chunk][index];
+        }
+
+        @Override
+        public Date getLimitReturnDate() {
+            long due = columns.due[chunk][index];
+            return due == NO_DUE_DATE ? null : new Date(due);
+        }
+
+        @Override
+        public boolean isExceeded() {
+            return columns.exceeded[chunk][index];
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return columns.borrower[chunk][index] == NO_BORROWER;
+        }
+
+        @Override
+        public void borrow(User username, long now) {
+            Columns c = columns;
+            int borrower = users.register(username).getUserId();
+            beginLoanWrite();
+            c.borrower[chunk][index] = borrower;
+            c.due[chunk][index] = now + LOAN_DAYS_MILLIS;
+            c.exceeded[chunk][index] = false;
+            endLoanWrite();
+        }
+
+        @Override
+        public void returnBook() {
+            Columns c = columns;
+            beginLoanWrite();
+            c.borrower[chunk][index] = NO_BORROWER;
+            c.due[chunk][index] = NO_DUE_DATE;
+            c.exceeded[chunk][index] = false;
+            endLoanWrite();
+        }
+
+        @Override
+        public void extendLoan() {
+            Columns c = columns;
+            if (c.due[chunk][index] == NO_DUE_DATE) {
+                return; // Cannot extend loan if the book is not borrowed
+            }
+            beginLoanWrite();
+            c.due[chunk][index] += LOAN_DAYS_MILLIS;
+            c.exceeded[chunk][index] = true;
+            endLoanWrite();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package Domain;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * Append-only journal of committed transactions, one line per transaction:
+ *
+ *   sequence TAB commit time (epoch millis) TAB user TAB borrow 3,return 5,...
+ *
+ * A record is forced to disk before its transaction is applied, so a commit
+ * costs one flush however many operations it holds. Reopening a journal
+ * continues its sequence.
+ */
+public class CommitLog implements Closeable {
+
+    private static final int BLOCK_SIZE = 4096;
+
+    private final FileChannel channel;
+    private long sequence;
+
+    public CommitLog(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        try (FileChannel journal = FileChannel.open(path, StandardOpenOption.READ)) {
+            this.sequence = lastSequence(journal);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /*
+     * Sequence number of the last complete record, read from the end of the
+     * journal so that reopening does not depend on its length. A torn last
+     * record without its newline is not counted.
+     */
+    private static long lastSequence(FileChannel journal) throws IOException {
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+        StringBuilder line = new StringBuilder();
+        boolean inRecord = false;
+        for (long end = journal.size(); end > 0; end -= block.capacity()) {
+            long start = Math.max(0, end - block.capacity());
+            block.clear().limit((int) (end - start));
+            while (block.hasRemaining()) {
+                if (journal.read(block, start + block.position()) < 0) {
+                    throw new IOException("Commit log shrank while it was read");
+                }
+            }
+            for (int i = block.limit() - 1; i >= 0; i--) {
+                byte b = block.get(i);
+                if (b == '\n') {
+                    if (inRecord) {
+                        return parseSequence(line.reverse());
+                    }
+                    inRecord = true;
+                } else if (inRecord) {
+                    line.append((char) b);
+                }
+            }
+        }
+        return inRecord ? parseSequence(line.reverse()) : 0;
+    }
+
+    private static long parseSequence(CharSequence record) throws IOException {
+        String text = record.toString();
+        int tab = text.indexOf('\t');
+        try {
+            return Long.parseLong(tab < 0 ? text : text.substring(0, tab));
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed commit log record: " + text);
+        }
+    }
+
+    /* Writes and forces the record of a transaction, throws UncheckedIOException if that fails */
+    synchronized void append(long millis, String user, Transaction transaction) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(sequence + 1).append('\t').append(millis).append('\t').append(user).append('\t');
+        for (int i = 0; i < transaction.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(transaction.getOperation(i)).append(' ').append(transaction.getId(i));
+        }
+        sb.append('\n');
+        ByteBuffer record = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+        try {
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        sequence++;
+    }
+
+    /* Number of records in the journal */
+    public synchronized long getRecordCount() {
+        return sequence;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,80 @@
+package Domain;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+/*
+ * Free lists of available copies per ISBN. Each list is a stack of candidate
+ * IDs: copies are pushed when added or returned, and validated only when popped,
+ * so borrowing or removing a copy by ID costs nothing here. A copy is on at most
+ * one stack at a time, which bounds the stale entries by the number of copies
+ * and makes a poll amortized O(1).
+ *
+ * Not thread-safe, the owning Library calls it under its lock.
+ */
+class CopyPool {
+
+    static final int NONE = -1;
+
+    private final int firstId;
+    private final Map<Integer, Stack> free = new HashMap<>();
+    // IDs currently on a stack, offset by firstId
+    private final BitSet pooled = new BitSet();
+
+    CopyPool(int firstId) {
+        this.firstId = firstId;
+    }
+
+    private static final class Stack {
+        int[] ids = new int[4];
+        int size;
+    }
+
+    /* Records that the copy may be available; ignored if it is already pooled */
+    void offer(int id, int isbn) {
+        if (pooled.get(id - firstId)) {
+            return;
+        }
+        pooled.set(id - firstId);
+        Stack s = free.computeIfAbsent(isbn, k -> new Stack());
+        if (s.size == s.ids.length) {
+            s.ids = Arrays.copyOf(s.ids, s.size * 2);
+        }
+        s.ids[s.size++] = id;
+    }
+
+    /* Drops stale copies of the ISBN and returns the available one on top, NONE if there is none */
+    int peek(int isbn, IntPredicate available) {
+        Stack s = free.get(isbn);
+        if (s == null) {
+            return NONE;
+        }
+        while (s.size > 0) {
+            int id = s.ids[s.size - 1];
+            if (available.test(id)) {
+                return id;
+            }
+            s.size--;
+            pooled.clear(id - firstId);
+        }
+        free.remove(isbn);
+        return NONE;
+    }
+
+    /* Like peek, but also takes the returned copy off the list */
+    int poll(int isbn, IntPredicate available) {
+        int id = peek(isbn, available);
+        if (id != NONE) {
+            Stack s = free.get(isbn);
+            s.size--;
+            pooled.clear(id - firstId);
+            if (s.size == 0) {
+                free.remove(isbn);
+            }
+        }
+        return id;
+    }
+}
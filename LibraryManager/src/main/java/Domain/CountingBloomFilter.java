@@ -0,0 +1,112 @@
+package Domain;
+
+/*
+ * Counting Bloom filter over 64-bit key hashes. Each of the m positions is a
+ * 4-bit counter (two per byte), so keys can be removed again; a counter that
+ * reaches 15 sticks there, which only costs accuracy, never a false negative.
+ * Sized for about 1% false positives at the expected number of keys.
+ *
+ * Updates must be serialised by the caller. Lookups need no lock: every update
+ * ends with a volatile write that a lookup reads first.
+ */
+class CountingBloomFilter {
+
+    private static final int HASHES = 7;
+    private static final int COUNTERS_PER_KEY = 10;
+    private static final int MAX_COUNT = 15;
+
+    private final byte[] counters;
+    private final int size;
+    private final int capacity;
+    private int keys;
+    private volatile int version;
+
+    CountingBloomFilter(int expectedKeys) {
+        this.capacity = Math.max(expectedKeys, 1);
+        this.size = (int) Math.min((long) capacity * COUNTERS_PER_KEY, Integer.MAX_VALUE - 1);
+        this.counters = new byte[(size + 1) / 2];
+    }
+
+    /* Number of keys the filter was sized for */
+    int getCapacity() {
+        return capacity;
+    }
+
+    /* Number of keys added and not removed, counting duplicates */
+    int getKeyCount() {
+        return keys;
+    }
+
+    /* Adds the key count times, e.g. once per copy */
+    void add(long hash, int count) {
+        for (int i = 0; i < HASHES; i++) {
+            int at = position(hash, i);
+            set(at, Math.min(get(at) + count, MAX_COUNT));
+        }
+        keys += count;
+        version++;
+    }
+
+    /* Removes one occurrence of a key that was added before */
+    void remove(long hash) {
+        for (int i = 0; i < HASHES; i++) {
+            int at = position(hash, i);
+            int count = get(at);
+            if (count > 0 && count < MAX_COUNT) {
+                set(at, count - 1);
+            }
+        }
+        keys--;
+        version++;
+    }
+
+    /* False only if the key is certainly absent */
+    boolean mightContain(long hash) {
+        // Reading the version first orders this lookup after every completed update
+        if (version == 0) {
+            return false;
+        }
+        for (int i = 0; i < HASHES; i++) {
+            if (get(position(hash, i)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h = (h ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    static long hash(int key) {
+        return mix(key);
+    }
+
+    /* Finaliser of MurmurHash3, spreads every input bit over the result */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb93fe1a85ec3L;
+        return h ^ (h >>> 33);
+    }
+
+    /* i-th position by double hashing on the two halves of the hash */
+    private int position(long hash, int i) {
+        int h = (int) hash + i * (int) (hash >>> 32);
+        return (h & Integer.MAX_VALUE) % size;
+    }
+
+    private int get(int at) {
+        return (counters[at >> 1] >> ((at & 1) << 2)) & 0xF;
+    }
+
+    private void set(int at, int count) {
+        int shift = (at & 1) << 2;
+        counters[at >> 1] = (byte) ((counters[at >> 1] & ~(0xF << shift)) | (count << shift));
+    }
+}
@@ -0,0 +1,118 @@
+package Domain;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Waitlists per ISBN. A returned copy is assigned to the head of its ISBN's
+ * queue and stays reserved for that user until a pickup deadline; the library
+ * owning the copy tracks that deadline.
+ *
+ * The partitions of a PartitionedLibrary share one instance, so a copy returned
+ * in any partition goes to the next waiting user. Every method locks this
+ * object, always after the calling library's lock and never the other way.
+ */
+class HoldQueues {
+
+    /* A user waiting for an ISBN, or holding a reserved copy of it */
+    static final class Hold {
+        final int userId;
+        final int isbn;
+        int bookId = Book.NO_BORROWER;
+        long deadline;
+
+        Hold(int userId, int isbn) {
+            this.userId = userId;
+            this.isbn = isbn;
+        }
+
+        private long key() {
+            return HoldQueues.key(userId, isbn);
+        }
+    }
+
+    private final Map<Integer, ArrayDeque<Hold>> waiting = new HashMap<>();
+    // Holds by (user, ISBN), waiting or reserved
+    private final Map<Long, Hold> holders = new HashMap<>();
+    private final Map<Integer, Hold> reserved = new HashMap<>();
+
+    private static long key(int userId, int isbn) {
+        return ((long) userId << 32) | (isbn & 0xFFFFFFFFL);
+    }
+
+    synchronized boolean hasHold(int userId, int isbn) {
+        return holders.containsKey(key(userId, isbn));
+    }
+
+    /* Whether anybody waits for the ISBN, i.e. a returned copy would be reserved */
+    synchronized boolean hasWaiting(int isbn) {
+        ArrayDeque<Hold> queue = waiting.get(isbn);
+        return queue != null && !queue.isEmpty();
+    }
+
+    /* Queues the user for the ISBN and returns the position, 1 being the head */
+    synchronized int place(int userId, int isbn) {
+        Hold hold = new Hold(userId, isbn);
+        holders.put(hold.key(), hold);
+        ArrayDeque<Hold> queue = waiting.computeIfAbsent(isbn, k -> new ArrayDeque<>());
+        queue.addLast(hold);
+        return queue.size();
+    }
+
+    /* Reserves the copy for the head of the ISBN queue; returns the hold, or null if nobody waits */
+    synchronized Hold assign(int bookId, int isbn, long deadline) {
+        ArrayDeque<Hold> queue = waiting.get(isbn);
+        if (queue == null) {
+            return null;
+        }
+        Hold hold = queue.pollFirst();
+        if (queue.isEmpty()) {
+            waiting.remove(isbn);
+        }
+        hold.bookId = bookId;
+        hold.deadline = deadline;
+        reserved.put(bookId, hold);
+        return hold;
+    }
+
+    /* Hold reserving the copy, or null */
+    synchronized Hold reservation(int bookId) {
+        return reserved.get(bookId);
+    }
+
+    /* Returns the copy reserved for the user and ISBN, or NO_BORROWER */
+    synchronized int reservedCopy(int userId, int isbn) {
+        Hold hold = holders.get(key(userId, isbn));
+        return hold == null ? Book.NO_BORROWER : hold.bookId;
+    }
+
+    /* Ends the reservation of a copy that its holder picked up */
+    synchronized void pickUp(int bookId) {
+        Hold hold = reserved.remove(bookId);
+        if (hold != null) {
+            holders.remove(hold.key());
+        }
+    }
+
+    /* Puts the holder of a removed copy back at the head of the queue */
+    synchronized void release(int bookId) {
+        Hold hold = reserved.remove(bookId);
+        if (hold != null) {
+            // A fresh hold, the old one may still sit in the deadline queue
+            Hold requeued = new Hold(hold.userId, hold.isbn);
+            holders.put(requeued.key(), requeued);
+            waiting.computeIfAbsent(hold.isbn, k -> new ArrayDeque<>()).addFirst(requeued);
+        }
+    }
+
+    /* Ends the reservation if it is still current; returns false if it was picked up or released */
+    synchronized boolean expire(Hold hold) {
+        if (reserved.get(hold.bookId) != hold) {
+            return false;
+        }
+        reserved.remove(hold.bookId);
+        holders.remove(hold.key());
+        return true;
+    }
+}
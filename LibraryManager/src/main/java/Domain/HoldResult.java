@@ -0,0 +1,12 @@
+package Domain;
+
+/* Outcome of placing a hold on an ISBN */
+public enum HoldResult {
+    PLACED,
+    /* No copy of the ISBN is in the catalogue */
+    NOT_FOUND,
+    /* A copy can be borrowed right away */
+    AVAILABLE,
+    /* The user is already waiting for or holding a copy */
+    ALREADY_HELD
+}
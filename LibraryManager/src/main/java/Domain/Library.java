@@ -1,15 +1,147 @@
 package Domain;
 
+import Metrics.LibraryMutationEvent;
+
+import java.sql.Date;
+import java.time.Clock;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
 
+/*
+ * Catalogue and session state. Writers are serialised on the library monitor;
+ * readers work on immutable snapshots of the book table and never block them.
+ */
 public class Library {
 
-    private final List<Book> books = new ArrayList<>();
-    private int nextId = 1;
+    // Loan operations of the batch API
+    static final String BORROW = LibraryMutationEvent.BORROW;
+    static final String RETURN = LibraryMutationEvent.RETURN;
+    static final String EXTEND = LibraryMutationEvent.EXTEND;
+
+    /* Number of books the Bloom filters are sized for when the ID range is unbounded */
+    static final int DEFAULT_FILTER_CAPACITY = 1 << 16;
+    static final int MAX_FILTER_CAPACITY = 1 << 22;
+
+    /* Time a user has to pick up a copy reserved by a hold */
+    public static final long HOLD_PICKUP_MILLIS = 3 * 24L * 60 * 60 * 1000;
+
+    // Titles, authors and usernames of this library, and its canonical users
+    final StringDictionary strings;
+    final UserRegistry users;
+
+    // Books addressed by ID, published as copy-on-write snapshots
+    private final BookStore books;
+    private int nextId;
+    private final int lastId;
+
+    // Case-folded n-gram indexes over titles and authors, used by search
+    private final NGramIndex titleIndex = new NGramIndex();
+    private final NGramIndex authorIndex = new NGramIndex();
+    // Ordered indexes for sorted listings by SortOrder ordinal, each built on the
+    // first listing in its order, so orders nobody lists by cost nothing
+    private final AtomicReferenceArray<SortIndex> sortIndexes = new AtomicReferenceArray<>(SortOrder.values().length);
+    // Counting Bloom filters over case-folded titles and authors and over ISBNs,
+    // answering certain misses without a lock; replaced as a whole when rebuilt
+    private volatile CountingBloomFilter titleFilter;
+    private volatile CountingBloomFilter authorFilter;
+    private volatile CountingBloomFilter isbnFilter;
+    // Recent search results, invalidated by version stamps on add and remove
+    private final SearchCache searchCache = new SearchCache();
+
+    // Available copies per ISBN, for borrowing any copy of a title
+    private final CopyPool copies;
+    // Number of copies per ISBN in the catalogue
+    private final Map<Integer, Integer> copyCounts = new HashMap<>();
+    // Waitlists per ISBN and the copies reserved for them
+    final HoldQueues holds;
+    // Reservations of this library's copies by pickup deadline; entries whose
+    // copy was picked up are skipped lazily
+    private final PriorityQueue<HoldQueues.Hold> holdDeadlines =
+            new PriorityQueue<>((a, b) -> Long.compare(a.deadline, b.deadline));
+    // Every borrow, extend and return, for the history command
+    private final LoanHistory history;
+    // Loan counters for the stats command and the overdue check
+    private LoanStats loanStats;
+    // Loan writes of the store as of the last time the loan indexes were in step
+    private int indexedLoanWrites;
+
+    // Journal of committed transactions, null if they are not journaled
+    private volatile CommitLog commitLog;
+
+    // Source of the current time for loans, holds and overdue checks
+    private final Clock clock;
+
+    private volatile User currentUser;
+
+    public Library() {
+        this(Clock.systemUTC());
+    }
+
+    /* Creates a library that reads the time from the given clock, e.g. a simulated one */
+    public Library(Clock clock) {
+        this(1, Integer.MAX_VALUE, clock);
+    }
+
+    /* Creates a library that hands out identifiers from [firstId, lastId] only */
+    public Library(int firstId, int lastId) {
+        this(firstId, lastId, Clock.systemUTC());
+    }
+
+    public Library(int firstId, int lastId, Clock clock) {
+        this(new BookTable(firstId), lastId, clock);
+    }
+
+    /* Creates a library on an alternative storage backend, e.g. a ColumnarBookStore */
+    public Library(BookStore store) {
+        this(store, Integer.MAX_VALUE);
+    }
+
+    public Library(BookStore store, int lastId) {
+        this(store, lastId, Clock.systemUTC());
+    }
 
-    private User currentUser;
+    public Library(BookStore store, int lastId, Clock clock) {
+        this(store, lastId, clock, new StringDictionary());
+    }
+
+    private Library(BookStore store, int lastId, Clock clock, StringDictionary strings) {
+        this(store, lastId, clock, strings, new UserRegistry(strings), new HoldQueues());
+    }
+
+    /* A library sharing its dictionary, users and waitlists with others, e.g. a partition */
+    Library(BookStore store, int lastId, Clock clock, StringDictionary strings, UserRegistry users,
+            HoldQueues holds) {
+        this.strings = strings;
+        this.users = users;
+        this.holds = holds;
+        this.history = new LoanHistory(strings);
+        store.attach(strings, users);
+        this.books = store;
+        this.nextId = store.getFirstId();
+        this.lastId = lastId;
+        this.copies = new CopyPool(store.getFirstId());
+        this.loanStats = new LoanStats(store.getFirstId());
+        this.clock = clock;
+        long range = (long) lastId - store.getFirstId() + 1;
+        createFilters(lastId == Integer.MAX_VALUE ? DEFAULT_FILTER_CAPACITY : (int) Math.max(Math.min(range, MAX_FILTER_CAPACITY), 1024));
+    }
+
+    public Clock getClock() {
+        return clock;
+    }
 
     // ------------ User administration ------------
 
@@ -17,8 +149,14 @@ public class Library {
         return currentUser;
     }
 
+    /* Sets the session user, replaced by the registered user of the same name */
     public void setCurrentUser(User user) {
-        this.currentUser = user;
+        this.currentUser = user == null ? null : users.register(user);
+    }
+
+    /* Canonical users of this library, e.g. for logging in */
+    public UserRegistry getUsers() {
+        return users;
     }
 
     public boolean hasLoggedInUser() {
@@ -26,65 +164,1144 @@ public class Library {
     }
 
     public boolean isCurrentUserAdmin() {
-        return currentUser != null && currentUser.isAdmin();
+        User user = currentUser;
+        return user != null && user.isAdmin();
     }
 
     // ------------ Book administration ------------
 
     /* Adds a single book to the library with a unique identifier */
-    public Book addSingleBook(int isbn, String title, String author, int yearPublished) {
+    public synchronized Book addSingleBook(int isbn, String title, String author, int yearPublished) {
+        LibraryMutationEvent event = new LibraryMutationEvent();
+        event.begin();
+        reserveIds(1);
         int id = nextId++;
-        Book book = new Book(id, isbn, title, author, yearPublished);
-        books.add(book);
+        Book book = books.add(id, isbn, title, author, yearPublished);
+        copies.offer(id, isbn);
+        copyCounts.merge(isbn, 1, Integer::sum);
+        titleIndex.add(id, title);
+        authorIndex.add(id, author);
+        sort(book, true);
+        searchCache.touch(title, author, yearPublished);
+        filter(isbn, title, author, 1);
+        commit(event, LibraryMutationEvent.ADD, id, true);
         return book;
     }
 
-    /* Returns a book by its unique identifier out of the books list */
-    public Book getBookById(int id) {
-        for (Book b : books) {
-            if (b.getID() == id) {
-                return b;
-            }
+    /*
+     * Adds the given number of copies of one book. The copies get consecutive
+     * identifiers, the first of which is returned.
+     */
+    public synchronized int addCopies(int isbn, String title, String author, int yearPublished, int copies) {
+        LibraryMutationEvent event = new LibraryMutationEvent();
+        event.begin();
+        reserveIds(copies);
+        int first = insertCopies(isbn, title, author, yearPublished, copies);
+        commit(event, LibraryMutationEvent.ADD, first, copies);
+        return first;
+    }
+
+    /*
+     * Adds every entry in list order under one lock and returns the first new ID,
+     * so IDs follow the order of the entries. Storage and Bloom filters are sized
+     * for the whole import up front. Nothing is added if the IDs do not suffice.
+     */
+    public synchronized int importCatalogue(List<CatalogueEntry> entries) {
+        LibraryMutationEvent event = new LibraryMutationEvent();
+        event.begin();
+        int total = checkImport(entries);
+        books.reserve(total);
+        long keys = isbnFilter.getKeyCount() + total;
+        if (keys > isbnFilter.getCapacity() && isbnFilter.getCapacity() < MAX_FILTER_CAPACITY) {
+            rebuildFilters((int) Math.min(2 * keys, MAX_FILTER_CAPACITY));
+        }
+
+        int first = nextId;
+        for (CatalogueEntry entry : entries) {
+            insertCopies(entry.getIsbn(), entry.getTitle(), entry.getAuthor(), entry.getYearPublished(),
+                    entry.getCopies());
+        }
+        commit(event, LibraryMutationEvent.ADD, first, total);
+        return first;
+    }
+
+    /*
+     * Returns the number of books the entries add, or throws IllegalStateException
+     * if their IDs do not fit. The caller holds the writer lock.
+     */
+    int checkImport(List<CatalogueEntry> entries) {
+        long total = 0;
+        for (CatalogueEntry entry : entries) {
+            total += entry.getCopies();
         }
-        return null;
+        if (total > Integer.MAX_VALUE) {
+            throw new IllegalStateException("No free book IDs left in this library");
+        }
+        reserveIds((int) total);
+        return (int) total;
+    }
+
+    /* Stores and indexes copies under the next IDs, which the caller has reserved */
+    private int insertCopies(int isbn, String title, String author, int yearPublished, int copies) {
+        int first = nextId;
+        for (int c = 0; c < copies; c++) {
+            books.add(nextId, isbn, title, author, yearPublished);
+            this.copies.offer(nextId++, isbn);
+        }
+        copyCounts.merge(isbn, copies, Integer::sum);
+        titleIndex.addRange(first, nextId - 1, title);
+        authorIndex.addRange(first, nextId - 1, author);
+        sortRange(first, nextId - 1);
+        searchCache.touch(title, author, yearPublished);
+        filter(isbn, title, author, copies);
+        return first;
+    }
+
+    private void reserveIds(int count) {
+        if ((long) nextId + count - 1 > lastId) {
+            throw new IllegalStateException("No free book IDs left in this library");
+        }
+    }
+
+    /* Returns a book by its unique identifier, without locking */
+    public Book getBookById(int id) {
+        return books.get(id);
     }
 
-    /* Returns all books in the library as an unmodifiable list */
+    /*
+     * Returns a point-in-time snapshot of all books in ID order. Later changes to
+     * the catalogue are not visible through it, so it can be iterated at leisure.
+     */
     public List<Book> getAllBooks() {
-        return Collections.unmodifiableList(books);
+        return books.snapshot();
     }
 
-    /* Removes book out of the library by its unique identifier */
-    public boolean removeBook(int id) {
-        for (int i = 0; i < books.size(); i++) {
-            if (books.get(i).getID() == id) {
-                books.remove(i);
-                return true;
+    /* Returns the books accepted by the filter in ID order, scanning a snapshot */
+    public List<Book> findBooks(Predicate<Book> filter) {
+        List<Book> result = new ArrayList<>();
+        for (Book b : books.snapshot()) {
+            if (filter.test(b)) {
+                result.add(b);
             }
         }
+        return result;
+    }
+
+    /* Removes book out of the library by its unique identifier */
+    public synchronized boolean removeBook(int id) {
+        syncLoans();
+        LibraryMutationEvent event = new LibraryMutationEvent();
+        event.begin();
+        Book book = books.remove(id);
+        if (book != null) {
+            unindex(book);
+            commit(event, LibraryMutationEvent.REMOVE, id, true);
+            return true;
+        }
+        commit(event, LibraryMutationEvent.REMOVE, id, false);
         return false;
     }
 
+    /*
+     * Removes every book whose identifier lies in [first, last] in one step and
+     * returns the removed identifiers in ascending order
+     */
+    public synchronized int[] removeRange(int first, int last) {
+        syncLoans();
+        LibraryMutationEvent event = new LibraryMutationEvent();
+        event.begin();
+        Book[] books = this.books.removeRange(first, last);
+        int[] removed = new int[books.length];
+        String[] titles = new String[books.length];
+        String[] authors = new String[books.length];
+        for (int i = 0; i < books.length; i++) {
+            removed[i] = books[i].getID();
+            titles[i] = books[i].getTitle();
+            authors[i] = books[i].getAuthor();
+            unindexAttributes(books[i]);
+        }
+        // One compaction per posting list rather than one per book and gram
+        titleIndex.removeAll(removed, titles);
+        authorIndex.removeAll(removed, authors);
+        commit(event, LibraryMutationEvent.REMOVE, first, removed.length);
+        return removed;
+    }
+
+    private void unindex(Book book) {
+        titleIndex.remove(book.getID(), book.getTitle());
+        authorIndex.remove(book.getID(), book.getAuthor());
+        unindexAttributes(book);
+    }
+
+    /* Everything unindex does except the n-gram indexes */
+    private void unindexAttributes(Book book) {
+        copyCounts.computeIfPresent(book.getISBN(), (isbn, count) -> count == 1 ? null : count - 1);
+        holds.release(book.getID());
+        loanStats.remove(book);
+        sort(book, false);
+        searchCache.touch(book.getTitle(), book.getAuthor(), book.getYearPublished());
+        titleFilter.remove(CountingBloomFilter.hash(NGramIndex.normalize(book.getTitle())));
+        authorFilter.remove(CountingBloomFilter.hash(NGramIndex.normalize(book.getAuthor())));
+        isbnFilter.remove(CountingBloomFilter.hash(book.getISBN()));
+    }
+
+    /* Adds the book to or removes it from every sort index built so far */
+    private void sort(Book book, boolean add) {
+        for (SortOrder order : SortOrder.values()) {
+            SortIndex index = sortIndexes.get(order.ordinal());
+            if (index == null) {
+                continue;
+            }
+            if (add) {
+                index.add(order.keyOf(book, strings), book.getID());
+            } else {
+                index.remove(order.keyOf(book, strings), book.getID());
+            }
+        }
+    }
+
+    /* Adds the copies with IDs in [first, last], which share their keys, to every sort index built so far */
+    private void sortRange(int first, int last) {
+        for (SortOrder order : SortOrder.values()) {
+            SortIndex index = sortIndexes.get(order.ordinal());
+            if (index == null) {
+                continue;
+            }
+            long key = order.keyOf(books.get(first), strings);
+            for (int id = first; id <= last; id++) {
+                index.add(key, id);
+            }
+        }
+    }
+
+    /* The index of the order, built from the catalogue on first use */
+    private SortIndex sortIndex(SortOrder order) {
+        SortIndex index = sortIndexes.get(order.ordinal());
+        return index != null ? index : buildSortIndex(order);
+    }
+
+    private synchronized SortIndex buildSortIndex(SortOrder order) {
+        SortIndex index = sortIndexes.get(order.ordinal());
+        if (index == null) {
+            index = new SortIndex(SortIndex.comparator(order, strings));
+            for (Book book : books.snapshot()) {
+                index.add(order.keyOf(book, strings), book.getID());
+            }
+            sortIndexes.set(order.ordinal(), index);
+        }
+        return index;
+    }
+
+    // -------- Bloom filters --------
+
+    /* Adds count copies of a book to the filters, rebuilding them larger once they are full */
+    private void filter(int isbn, String title, String author, int count) {
+        titleFilter.add(CountingBloomFilter.hash(NGramIndex.normalize(title)), count);
+        authorFilter.add(CountingBloomFilter.hash(NGramIndex.normalize(author)), count);
+        isbnFilter.add(CountingBloomFilter.hash(isbn), count);
+        int capacity = isbnFilter.getCapacity();
+        if (isbnFilter.getKeyCount() > capacity && capacity < MAX_FILTER_CAPACITY) {
+            rebuildFilters((int) Math.min(2L * isbnFilter.getKeyCount(), MAX_FILTER_CAPACITY));
+        }
+    }
+
+    private void createFilters(int capacity) {
+        titleFilter = new CountingBloomFilter(capacity);
+        authorFilter = new CountingBloomFilter(capacity);
+        isbnFilter = new CountingBloomFilter(capacity);
+    }
+
+    /* Rebuilds the Bloom filters from a snapshot, sized for the given number of books */
+    public synchronized void rebuildFilters(int capacity) {
+        CountingBloomFilter titles = new CountingBloomFilter(capacity);
+        CountingBloomFilter authors = new CountingBloomFilter(capacity);
+        CountingBloomFilter isbns = new CountingBloomFilter(capacity);
+        for (Book b : books.snapshot()) {
+            titles.add(CountingBloomFilter.hash(NGramIndex.normalize(b.getTitle())), 1);
+            authors.add(CountingBloomFilter.hash(NGramIndex.normalize(b.getAuthor())), 1);
+            isbns.add(CountingBloomFilter.hash(b.getISBN()), 1);
+        }
+        titleFilter = titles;
+        authorFilter = authors;
+        isbnFilter = isbns;
+    }
+
+    /*
+     * Returns false only if no book can match the query, answered in constant
+     * time without a lock. Only exact title and author filters are checked; the
+     * filters fold case, so case-insensitive queries are covered as well.
+     */
+    public boolean mayMatch(SearchQuery query) {
+        if (query.getMode() != MatchMode.EXACT) {
+            return true;
+        }
+        return (query.getTitle() == null
+                || titleFilter.mightContain(CountingBloomFilter.hash(NGramIndex.normalize(query.getTitle()))))
+                && (query.getAuthor() == null
+                || authorFilter.mightContain(CountingBloomFilter.hash(NGramIndex.normalize(query.getAuthor()))));
+    }
+
+    /* Returns false only if the library holds no copy of the ISBN, without a lock */
+    public boolean mayHaveIsbn(int isbn) {
+        return isbnFilter.mightContain(CountingBloomFilter.hash(isbn));
+    }
+
+    // -------- Search --------
+
+    /*
+     * Returns the books matching the query in ID order. Title and author filters
+     * are resolved through the n-gram indexes, so only candidates are verified;
+     * a year-only query scans the catalogue. Results are cached until a book
+     * they could include is added or removed. The index lookup holds the writer
+     * lock briefly, the verification runs on a snapshot.
+     */
+    public List<Book> search(SearchQuery query) {
+        List<Book> result = new ArrayList<>();
+        searchFrom(query, 0).forEachRemaining(result::add);
+        return result;
+    }
+
+    public synchronized SearchCacheStats getSearchCacheStats() {
+        return searchCache.stats();
+    }
+
+    /* IDs of the snapshot's books matching the query, verifying the candidates or scanning */
+    private int[] matches(BookStore.Snapshot snapshot, SearchQuery query, int[] candidates) {
+        Predicate<Book> matcher = query.matcher(strings);
+        int[] result = new int[candidates == null ? snapshot.size() : candidates.length];
+        int count = 0;
+        if (candidates == null) {
+            for (Book b : snapshot) {
+                if (matcher.test(b)) {
+                    result[count++] = b.getID();
+                }
+            }
+        } else {
+            for (int id : candidates) {
+                Book b = snapshot.getById(id);
+                if (b != null && matcher.test(b)) {
+                    result[count++] = id;
+                }
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /* Candidate IDs from the title and author indexes, null if neither filter is set */
+    private int[] candidates(SearchQuery query) {
+        int[] candidates = null;
+        if (query.getTitle() != null) {
+            candidates = titleIndex.candidates(query.getTitle(), query.getMode());
+        }
+        if (query.getAuthor() != null) {
+            int[] byAuthor = authorIndex.candidates(query.getAuthor(), query.getMode());
+            candidates = candidates == null ? byAuthor : intersect(candidates, byAuthor);
+        }
+        return candidates;
+    }
+
+    /* Merges two ascending ID arrays, null meaning "no restriction" */
+    private static int[] intersect(int[] a, int[] b) {
+        if (b == null) {
+            return a;
+        }
+        int[] result = new int[Math.min(a.length, b.length)];
+        int count = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length;) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    // -------- Pages --------
+
+    /*
+     * Returns up to limit books accepted by the filter (null for all) in ID order,
+     * starting at fromId and skipping the first offset matches. Pages resume from
+     * a cursor without re-reading earlier books, and an unfiltered page seeks to
+     * its offset by position, so a page costs O(limit) plus the seek.
+     */
+    public BookPage findPage(Predicate<Book> filter, int fromId, int offset, int limit) {
+        if (filter == null) {
+            return page(iterateFrom(fromId, offset), 0, limit);
+        }
+        return page(new FilteringIterator(iterateFrom(fromId, 0), filter), offset, limit);
+    }
+
+    /* Page of the search results, see findPage */
+    public BookPage searchPage(SearchQuery query, int fromId, int offset, int limit) {
+        return page(searchFrom(query, fromId), offset, limit);
+    }
+
+    private static BookPage page(Iterator<Book> books, int skip, int limit) {
+        for (int i = 0; i < skip && books.hasNext(); i++) {
+            books.next();
+        }
+        List<Book> result = new ArrayList<>(Math.min(limit, 64));
+        while (result.size() < limit && books.hasNext()) {
+            result.add(books.next());
+        }
+        return new BookPage(result, books.hasNext() ? books.next().getID() : -1);
+    }
+
+    /*
+     * Returns up to limit books accepted by the filter (null for all) in the given
+     * sort order, resuming at a cursor of a previous sorted page (null for the
+     * first page) and skipping the first offset matches. Books stream straight
+     * from the ordered index, which is left as soon as the page is full.
+     */
+    public BookPage findSortedPage(SortOrder order, Predicate<Book> filter, String cursor, int offset, int limit) {
+        Long from = cursor == null ? null : sortPosition(order, cursor);
+        Iterator<Long> entries = sortedEntries(order, from);
+        List<Book> result = new ArrayList<>(Math.min(limit, 64));
+        int skipped = 0;
+        while (entries.hasNext()) {
+            long entry = entries.next();
+            Book b = getBookById(SortIndex.idOf(entry));
+            if (b == null || filter != null && !filter.test(b)) {
+                continue;
+            }
+            if (skipped < offset) {
+                skipped++;
+            } else if (result.size() < limit) {
+                result.add(b);
+            } else {
+                return new BookPage(result, BookPage.encodeSortedCursor(entry));
+            }
+        }
+        return new BookPage(result, null);
+    }
+
+    /*
+     * Sorted page of the search results, see findSortedPage. The sort index is
+     * walked from the cursor and each book checked against the query, until the
+     * page is full. Only when the title and author indexes leave so few
+     * candidates that sorting them is cheaper than the walk (about
+     * (offset + limit) * size / candidates entries) are the matches sorted.
+     */
+    public BookPage searchSortedPage(SortOrder order, SearchQuery query, String cursor, int offset, int limit) {
+        Long from = cursor == null ? null : sortPosition(order, cursor);
+        if (!mayMatch(query)) {
+            return new BookPage(new ArrayList<>(), null);
+        }
+        int candidates = candidateCount(query);
+        long walked = (long) offset + limit;
+        if (candidates < 0 || (long) candidates * candidates > walked * Math.max(books.snapshot().size(), 1)) {
+            return findSortedPage(order, query.matcher(strings), cursor, offset, limit);
+        }
+
+        Comparator<Long> comparator = SortIndex.comparator(order, strings);
+        List<Long> entries = new ArrayList<>();
+        Map<Integer, Book> matches = new HashMap<>();
+        for (Iterator<Book> it = searchFrom(query, 0); it.hasNext();) {
+            Book b = it.next();
+            long key = order.keyOf(b, strings);
+            if (key == SortOrder.NONE) {
+                continue;
+            }
+            long entry = SortIndex.entry(key, b.getID());
+            if (from == null || comparator.compare(entry, from) >= 0) {
+                entries.add(entry);
+                matches.put(b.getID(), b);
+            }
+        }
+        entries.sort(comparator);
+
+        List<Book> result = new ArrayList<>(Math.min(limit, 64));
+        for (int i = offset; i < entries.size() && result.size() < limit; i++) {
+            result.add(matches.get(SortIndex.idOf(entries.get(i))));
+        }
+        long next = (long) offset + limit;
+        return new BookPage(result, next < entries.size() ? BookPage.encodeSortedCursor(entries.get((int) next)) : null);
+    }
+
+    /* Number of cached matches or index candidates of the query, -1 if neither index narrows it */
+    private synchronized int candidateCount(SearchQuery query) {
+        int cached = searchCache.cachedSize(query);
+        if (cached >= 0) {
+            return cached;
+        }
+        int[] candidates = candidates(query);
+        return candidates == null ? -1 : candidates.length;
+    }
+
+    /* Sort index entry a cursor resumes at, throws IllegalArgumentException if it does not fit the order */
+    private long sortPosition(SortOrder order, String cursor) {
+        long entry = BookPage.decodeSortedCursor(cursor);
+        long key = SortIndex.keyOf(entry);
+        if (order.isText() && (key < 0 || key >= strings.size())) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        return entry;
+    }
+
+    /*
+     * Entries of the sort index from the given position on (null for the start).
+     * Entries are dropped if their book was removed or, for due dates, re-keyed
+     * since they were read, as the index is iterated without the writer lock.
+     * Other keys never change while an ID is in use.
+     */
+    Iterator<Long> sortedEntries(SortOrder order, Long from) {
+        Iterator<Long> entries = sortIndex(order).iteratorFrom(from);
+        return new Iterator<Long>() {
+            private Long next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && entries.hasNext()) {
+                    Long entry = entries.next();
+                    Book b = getBookById(SortIndex.idOf(entry));
+                    if (b != null && (order != SortOrder.DUE
+                            || SortIndex.keyOf(entry) == order.keyOf(b, strings))) {
+                        next = entry;
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public Long next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Long entry = next;
+                next = null;
+                return entry;
+            }
+        };
+    }
+
+    /* Iterates a snapshot from fromId on, positioned offset books further */
+    Iterator<Book> iterateFrom(int fromId, int offset) {
+        BookStore.Snapshot snapshot = books.snapshot();
+        if (offset > 0 && fromId <= books.getFirstId()) {
+            if (offset >= snapshot.size()) {
+                return Collections.emptyIterator();
+            }
+            return snapshot.iteratorFrom(snapshot.get(offset).getID());
+        }
+        Iterator<Book> it = snapshot.iteratorFrom(fromId);
+        for (int i = 0; i < offset && it.hasNext(); i++) {
+            it.next();
+        }
+        return it;
+    }
+
+    /* Search matches with an ID of at least fromId, from the search cache when it is current */
+    Iterator<Book> searchFrom(SearchQuery query, int fromId) {
+        if (!mayMatch(query)) {
+            return Collections.emptyIterator();
+        }
+        BookStore.Snapshot snapshot;
+        int[] matches;
+        int[] candidates = null;
+        long stamp = 0;
+        synchronized (this) {
+            snapshot = books.snapshot();
+            matches = searchCache.get(query);
+            if (matches == null) {
+                candidates = candidates(query);
+                stamp = searchCache.stamp(query);
+            }
+        }
+        if (matches == null) {
+            matches = matches(snapshot, query, candidates);
+            synchronized (this) {
+                searchCache.put(query, stamp, matches);
+            }
+        }
+
+        int[] ids = matches;
+        int start = Arrays.binarySearch(ids, fromId);
+        int first = start >= 0 ? start : -start - 1;
+        return new Iterator<Book>() {
+            private int next = first;
+
+            @Override
+            public boolean hasNext() {
+                return next < ids.length;
+            }
+
+            @Override
+            public Book next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return snapshot.getById(ids[next++]);
+            }
+        };
+    }
+
+    /* Books of the source accepted by the filter */
+    static final class FilteringIterator implements Iterator<Book> {
+
+        private final Iterator<Book> source;
+        private final Predicate<Book> filter;
+        private Book next;
+
+        FilteringIterator(Iterator<Book> source, Predicate<Book> filter) {
+            this.source = source;
+            this.filter = filter;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && source.hasNext()) {
+                Book b = source.next();
+                if (filter.test(b)) {
+                    next = b;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Book next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Book b = next;
+            next = null;
+            return b;
+        }
+    }
+
     // -------- Borrow operations --------
 
     /*
      * Set a book state to borrowed and set the limit date to current date plus
      * seven loan days
      */
-    public void borrowBook(int id) {
+    public synchronized void borrowBook(int id) {
+        expireHolds(clock.millis());
+        applyLoan(BORROW, getBookById(id));
+    }
+
+    /*
+     * Borrows any available copy of the ISBN for the current user and returns it,
+     * or null if no copy is available. Does not scan the catalogue.
+     */
+    public synchronized Book borrowByIsbn(int isbn) {
+        expireHolds(clock.millis());
+        int id = holds.reservedCopy(currentUser.getUserId(), isbn);
+        if (id == Book.NO_BORROWER || books.get(id) == null) {
+            // No reservation, or one for a copy in another partition
+            id = copies.poll(isbn, this::isFreeCopy);
+        }
+        if (id == CopyPool.NONE) {
+            return null;
+        }
         Book book = getBookById(id);
-        book.borrow(currentUser);
+        applyLoan(BORROW, book);
+        return book;
     }
 
-    /* Set a book state to not borrowed */
-    public void returnBook(int id) {
+    /* A copy that is neither borrowed nor reserved by a hold */
+    private boolean isFreeCopy(int id) {
         Book book = getBookById(id);
-        book.returnBook();
+        return book != null && book.isAvailable() && holds.reservation(id) == null;
+    }
+
+    /* Set a book state to not borrowed */
+    public synchronized void returnBook(int id) {
+        expireHolds(clock.millis());
+        applyLoan(RETURN, getBookById(id));
     }
 
     /* Extend the loan of a book by another seven days */
-    public void extendLoan(int id) {
+    public synchronized void extendLoan(int id) {
+        expireHolds(clock.millis());
+        applyLoan(EXTEND, getBookById(id));
+    }
+
+    // -------- Statistics --------
+
+    /*
+     * Returns the catalogue counters as of now. The counters follow every
+     * mutation made through this library, so this does not scan. Overdue loans
+     * are counted up to the latest time passed in, so now should not go back.
+     */
+    public synchronized CatalogueStats getStats(long now) {
+        syncLoans();
+        loanStats.refresh(now, this::getBookById);
+        return new CatalogueStats(books.snapshot().size(), copyCounts.size(), loanStats.getBorrowed(),
+                loanStats.getExtended(), loanStats.getOverdue());
+    }
+
+    /*
+     * Marks the loans that fell due since the last sweep as overdue, using the
+     * due-date index rather than a scan. Returns the number of newly overdue loans.
+     */
+    public synchronized int sweepOverdue() {
+        syncLoans();
+        return loanStats.refresh(clock.millis(), this::getBookById);
+    }
+
+    /* Loans found overdue by the latest sweep or stats read, in ID order */
+    public synchronized List<Book> getOverdueBooks() {
+        syncLoans();
+        List<Book> result = new ArrayList<>();
+        for (int id : loanStats.overdueIds()) {
+            result.add(getBookById(id));
+        }
+        return result;
+    }
+
+    /*
+     * Returns up to limit overdue loans accepted by the filter (null for all) in
+     * ID order, starting at fromId and skipping the first offset matches. Walks
+     * the overdue set left by a sweep from fromId on, so only overdue books are
+     * read and the walk stops once the page is full.
+     */
+    public BookPage findOverduePage(Predicate<Book> filter, int fromId, int offset, int limit) {
+        sweepOverdue();
+        Iterator<Book> overdue = overdueFrom(fromId);
+        return page(filter == null ? overdue : new FilteringIterator(overdue, filter), offset, limit);
+    }
+
+    /*
+     * Sorted page of the overdue loans, see findSortedPage. Walks the sort index
+     * and keeps the books the latest sweep found overdue.
+     */
+    public BookPage findOverdueSortedPage(SortOrder order, Predicate<Book> filter, String cursor, int offset,
+            int limit) {
+        sweepOverdue();
+        Predicate<Book> overdue = b -> isOverdue(b.getID());
+        return findSortedPage(order, filter == null ? overdue : overdue.and(filter), cursor, offset, limit);
+    }
+
+    /* Whether the latest sweep found the loan of the book overdue */
+    synchronized boolean isOverdue(int id) {
+        return loanStats.isOverdue(id);
+    }
+
+    /* Overdue loans with an ID of at least fromId, in ID order; each step takes the lock briefly */
+    Iterator<Book> overdueFrom(int fromId) {
+        return new Iterator<Book>() {
+            private int from = fromId;
+            private Book next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && from >= 0) {
+                    int id = nextOverdue(from);
+                    from = id < 0 || id == Integer.MAX_VALUE ? -1 : id + 1;
+                    next = id < 0 ? null : getBookById(id);
+                }
+                return next != null;
+            }
+
+            @Override
+            public Book next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Book b = next;
+                next = null;
+                return b;
+            }
+        };
+    }
+
+    private synchronized int nextOverdue(int fromId) {
+        return loanStats.nextOverdue(fromId);
+    }
+
+    /* Runs the periodic maintenance: overdue marking and hold expiry */
+    public synchronized void sweep() {
+        sweepOverdue();
+        expireHolds(clock.millis());
+    }
+
+    /* Number of books the user currently has on loan */
+    public synchronized int getLoanCount(int userId) {
+        syncLoans();
+        return loanStats.getLoans(userId);
+    }
+
+    // -------- History --------
+
+    /* Borrows, extensions and returns of the user, oldest first */
+    public synchronized List<LoanEvent> getUserHistory(int userId) {
+        return history.ofUser(userId);
+    }
+
+    /* Borrows, extensions and returns of the book, oldest first; kept after the book is removed */
+    public synchronized List<LoanEvent> getBookHistory(int id) {
+        return history.ofBook(id);
+    }
+
+    // -------- Holds --------
+
+    /*
+     * Queues the current user for the next returned copy of the ISBN. Only
+     * possible while every copy is out; the returned copy is then reserved for the
+     * head of the queue until the pickup deadline.
+     */
+    public synchronized HoldResult placeHold(int isbn) {
+        expireHolds(clock.millis());
+        return queueHold(isbn, hasCopies(isbn), hasFreeCopy(isbn));
+    }
+
+    /* Applies the hold rules given whether any copy of the ISBN exists and is free */
+    HoldResult queueHold(int isbn, boolean exists, boolean free) {
+        if (!exists) {
+            return HoldResult.NOT_FOUND;
+        }
+        if (holds.hasHold(currentUser.getUserId(), isbn)) {
+            return HoldResult.ALREADY_HELD;
+        }
+        if (free) {
+            return HoldResult.AVAILABLE;
+        }
+        holds.place(currentUser.getUserId(), isbn);
+        return HoldResult.PLACED;
+    }
+
+    synchronized boolean hasCopies(int isbn) {
+        return copyCounts.containsKey(isbn);
+    }
+
+    synchronized boolean hasFreeCopy(int isbn) {
+        return copies.peek(isbn, this::isFreeCopy) != CopyPool.NONE;
+    }
+
+    /* User the copy is reserved for, or null */
+    public synchronized User getHolder(int id) {
+        HoldQueues.Hold hold = holds.reservation(id);
+        return hold == null ? null : users.get(hold.userId);
+    }
+
+    /* Pickup deadline of a reserved copy, or null */
+    public synchronized Date getHoldDeadline(int id) {
+        HoldQueues.Hold hold = holds.reservation(id);
+        return hold == null ? null : new Date(hold.deadline);
+    }
+
+    /*
+     * Ends the reservations whose pickup deadline is before now. Each copy passes
+     * to the next user in its queue, or becomes available again. Returns the
+     * number of expired holds. Loan and hold operations call this first, so
+     * reservations lapse without a sweeper running.
+     */
+    public synchronized int expireHolds(long now) {
+        int expired = 0;
+        while (!holdDeadlines.isEmpty() && holdDeadlines.peek().deadline < now) {
+            HoldQueues.Hold hold = holdDeadlines.poll();
+            if (holds.expire(hold)) {
+                expired++;
+                handOver(hold.bookId, hold.isbn, now);
+            }
+        }
+        return expired;
+    }
+
+    /* Reserves a free copy for the next waiting user, or puts it back on the free list */
+    private void handOver(int id, int isbn, long now) {
+        HoldQueues.Hold hold = holds.assign(id, isbn, now + HOLD_PICKUP_MILLIS);
+        if (hold == null) {
+            copies.offer(id, isbn);
+        } else {
+            holdDeadlines.add(hold);
+        }
+    }
+
+    // -------- Transactions --------
+
+    /* Journals every committed transaction to the log, null to stop journaling */
+    public void setCommitLog(CommitLog log) {
+        this.commitLog = log;
+    }
+
+    /*
+     * Validates the buffered operations in order, as if each earlier one had been
+     * applied, and applies all of them or none. Returns one result per operation;
+     * if any fails, the valid ones are ABORTED. A committed transaction is written
+     * to the commit log as one record before it is applied.
+     */
+    public LoanResult[] commitTransaction(Transaction transaction) {
+        return commitTransaction(transaction, i -> { });
+    }
+
+    /*
+     * Variant calling onApplied with the index of each operation right after it
+     * is applied, still under the writer lock, so the callback sees the state
+     * that operation left behind rather than the end state of the transaction.
+     */
+    public synchronized LoanResult[] commitTransaction(Transaction transaction, IntConsumer onApplied) {
+        expireHolds(clock.millis());
+        LoanResult[] results = validateTransaction(transaction);
+        if (!allOk(results)) {
+            markAborted(results);
+            return results;
+        }
+        ensureHistoryRoom(transaction.size());
+        journal(transaction);
+        for (int i = 0; i < transaction.size(); i++) {
+            applyLoan(transaction.getOperation(i), getBookById(transaction.getId(i)));
+            onApplied.accept(i);
+        }
+        return results;
+    }
+
+    /* Writes the record of a validated transaction, the caller holds the writer locks */
+    void journal(Transaction transaction) {
+        CommitLog log = commitLog;
+        if (log != null) {
+            log.append(clock.millis(), currentUser.getUsername(), transaction);
+        }
+    }
+
+    /*
+     * Validates a transaction without changing state. The first operation on a
+     * book is checked against the book, later ones against the state the earlier
+     * operations of the transaction leave behind.
+     */
+    LoanResult[] validateTransaction(Transaction transaction) {
+        LoanResult[] results = new LoanResult[transaction.size()];
+        Map<Integer, String> last = new HashMap<>();
+        for (int i = 0; i < transaction.size(); i++) {
+            String operation = transaction.getOperation(i);
+            int id = transaction.getId(i);
+            String previous = last.get(id);
+            results[i] = previous == null ? checkLoan(operation, id) : checkAfter(previous, operation, id);
+            if (results[i] == LoanResult.OK) {
+                last.put(id, operation);
+            }
+        }
+        return results;
+    }
+
+    /* Result of an operation on a book that an earlier operation of the transaction changed */
+    private LoanResult checkAfter(String previous, String operation, int id) {
+        boolean borrowed = !RETURN.equals(previous);
+        if (BORROW.equals(operation)) {
+            if (borrowed) {
+                return LoanResult.ALREADY_BORROWED;
+            }
+            // The return hands the copy to the next waiting user
+            return hasWaitingHolds(id) ? LoanResult.ON_HOLD : LoanResult.OK;
+        }
+        if (!borrowed) {
+            return LoanResult.NOT_BORROWED;
+        }
+        if (EXTEND.equals(operation) && EXTEND.equals(previous)) {
+            return LoanResult.LIMIT_REACHED;
+        }
+        return LoanResult.OK;
+    }
+
+    /* Validates one loan operation for the current user, see checkLoan(String, Book) */
+    LoanResult checkLoan(String operation, int id) {
+        return checkLoan(operation, getBookById(id));
+    }
+
+    /* Whether a return of the book would reserve it for a waiting user */
+    boolean hasWaitingHolds(int id) {
         Book book = getBookById(id);
-        book.extendLoan();
+        return book != null && holds.hasWaiting(book.getISBN());
+    }
+
+    // -------- Bulk loan operations --------
+
+    /*
+     * Borrows every ID for the current user and returns one result per ID. With
+     * atomic set, nothing is borrowed unless every ID can be borrowed.
+     */
+    public synchronized LoanResult[] borrowBooks(int[] ids, boolean atomic) {
+        return runLoanBatch(BORROW, ids, atomic);
+    }
+
+    /* Returns every ID borrowed by the current user, see borrowBooks */
+    public synchronized LoanResult[] returnBooks(int[] ids, boolean atomic) {
+        return runLoanBatch(RETURN, ids, atomic);
+    }
+
+    /* Extends every loan of the current user, see borrowBooks */
+    public synchronized LoanResult[] extendLoans(int[] ids, boolean atomic) {
+        return runLoanBatch(EXTEND, ids, atomic);
+    }
+
+    /* Locks this library and runs a loan batch */
+    synchronized LoanResult[] loanBatch(String operation, int[] ids, boolean atomic) {
+        return runLoanBatch(operation, ids, atomic);
+    }
+
+    /* Runs a loan batch, the caller holds the writer lock */
+    LoanResult[] runLoanBatch(String operation, int[] ids, boolean atomic) {
+        expireHolds(clock.millis());
+        if (!atomic) {
+            LoanResult[] results = new LoanResult[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                Book book = getBookById(ids[i]);
+                results[i] = checkLoan(operation, book);
+                if (results[i] == LoanResult.OK) {
+                    applyLoan(operation, book);
+                }
+            }
+            return results;
+        }
+
+        LoanResult[] results = validateLoans(operation, ids);
+        if (allOk(results)) {
+            ensureHistoryRoom(ids.length);
+            applyLoans(operation, ids);
+        } else {
+            markAborted(results);
+        }
+        return results;
+    }
+
+    /*
+     * Validates a whole batch without changing state. An ID seen twice fails the
+     * way a second sequential application would.
+     */
+    LoanResult[] validateLoans(String operation, int[] ids) {
+        LoanResult[] results = new LoanResult[ids.length];
+        Set<Integer> seen = new HashSet<>();
+        for (int i = 0; i < ids.length; i++) {
+            results[i] = checkLoan(operation, getBookById(ids[i]));
+            if (results[i] == LoanResult.OK && !seen.add(ids[i])) {
+                results[i] = repeatedLoanResult(operation);
+            }
+        }
+        return results;
+    }
+
+    /* Refuses a batch of the given size up front if its loans would not fit in the history */
+    void ensureHistoryRoom(int loans) {
+        history.ensureRoom(loans);
+    }
+
+    /* Applies a batch that validateLoans accepted */
+    void applyLoans(String operation, int[] ids) {
+        for (int id : ids) {
+            applyLoan(operation, getBookById(id));
+        }
+    }
+
+    static boolean allOk(LoanResult[] results) {
+        for (LoanResult result : results) {
+            if (result != LoanResult.OK) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* Marks the IDs that would have succeeded as skipped by the failed batch */
+    static void markAborted(LoanResult[] results) {
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == LoanResult.OK) {
+                results[i] = LoanResult.ABORTED;
+            }
+        }
+    }
+
+    /* Validates one loan operation for the current user without changing state */
+    private LoanResult checkLoan(String operation, Book book) {
+        if (book == null) {
+            return LoanResult.NOT_FOUND;
+        }
+        if (BORROW.equals(operation)) {
+            if (!book.isAvailable()) {
+                return LoanResult.ALREADY_BORROWED;
+            }
+            HoldQueues.Hold hold = holds.reservation(book.getID());
+            return hold == null || hold.userId == currentUser.getUserId() ? LoanResult.OK : LoanResult.ON_HOLD;
+        }
+        if (book.isAvailable()) {
+            return LoanResult.NOT_BORROWED;
+        }
+        if (book.getBorrowerId() != currentUser.getUserId()) {
+            return LoanResult.NOT_BORROWER;
+        }
+        if (EXTEND.equals(operation) && book.isExceeded()) {
+            return LoanResult.LIMIT_REACHED;
+        }
+        return LoanResult.OK;
+    }
+
+    private static LoanResult repeatedLoanResult(String operation) {
+        if (BORROW.equals(operation)) {
+            return LoanResult.ALREADY_BORROWED;
+        }
+        if (RETURN.equals(operation)) {
+            return LoanResult.NOT_BORROWED;
+        }
+        return LoanResult.LIMIT_REACHED;
+    }
+
+    private void applyLoan(String operation, Book book) {
+        LibraryMutationEvent event = new LibraryMutationEvent();
+        event.begin();
+        long now = clock.millis();
+        // Recorded first: if the history is full, nothing has changed yet
+        history.append(operation, book.getID(), currentUser.getUserId(), now);
+        syncLoans();
+        loanStats.remove(book);
+        SortIndex byDue = sortIndexes.get(SortOrder.DUE.ordinal());
+        if (byDue != null) {
+            byDue.remove(SortOrder.DUE.keyOf(book, strings), book.getID());
+        }
+        if (BORROW.equals(operation)) {
+            book.borrow(currentUser, now);
+            holds.pickUp(book.getID());
+        } else if (RETURN.equals(operation)) {
+            book.returnBook();
+            handOver(book.getID(), book.getISBN(), now);
+        } else {
+            book.extendLoan();
+        }
+        loanStats.add(book);
+        if (byDue != null) {
+            byDue.add(SortOrder.DUE.keyOf(book, strings), book.getID());
+        }
+        indexedLoanWrites = books.getLoanWrites();
+        commit(event, operation, book.getID(), true);
+    }
+
+    /*
+     * Rebuilds the loan counters and drops the due-date order if a loan was changed on
+     * a book directly since this library last changed one, which bypassed them.
+     * Costs one read of the store's write count when nothing changed.
+     */
+    private void syncLoans() {
+        int writes = books.getLoanWrites();
+        if (writes == indexedLoanWrites) {
+            return;
+        }
+        loanStats = new LoanStats(books.getFirstId());
+        for (Book book : books.snapshot()) {
+            loanStats.add(book);
+        }
+        // Rebuilt on the next listing by due date
+        sortIndexes.set(SortOrder.DUE.ordinal(), null);
+        indexedLoanWrites = writes;
+    }
+
+    /* Fills and commits a flight recorder event, a no-op unless a recording enabled it */
+    private static void commit(LibraryMutationEvent event, String operation, int id, boolean success) {
+        commit(event, operation, id, success ? 1 : 0);
+    }
+
+    /* Variant for range operations, count is the number of books affected */
+    private static void commit(LibraryMutationEvent event, String operation, int firstId, int count) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.bookId = firstId;
+            event.count = count;
+            event.success = count > 0;
+            event.commit();
+        }
     }
 }
\ No newline at end of file
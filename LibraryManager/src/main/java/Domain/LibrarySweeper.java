@@ -0,0 +1,32 @@
+package Domain;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Background job that runs Library.sweep at a fixed rate: loans crossing their
+ * due date are marked overdue and expired holds pass on. Each run only visits
+ * the entries that are due, through the library's deadline indexes. Loan and
+ * hold calls still expire holds on their own; the sweeper keeps the overdue
+ * counts and reservations current between them. Main starts one with
+ * -Dlibrary.sweepSeconds=N.
+ */
+public class LibrarySweeper implements AutoCloseable {
+
+    private final ScheduledExecutorService scheduler;
+
+    public LibrarySweeper(Library library, long period, TimeUnit unit) {
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "library-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(library::sweep, period, period, unit);
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,43 @@
+package Domain;
+
+import java.sql.Date;
+
+/*
+ * Loan state of a book at one moment: the borrower, the limit return date and
+ * whether the loan was extended. It is immutable, so a reader holding one sees
+ * a consistent loan while the library returns or extends the book.
+ */
+public final class Loan {
+
+    private final User borrower;
+    private final Date limitReturnDate;
+    private final boolean exceeded;
+
+    public Loan(User borrower, Date limitReturnDate, boolean exceeded) {
+        this.borrower = borrower;
+        this.limitReturnDate = limitReturnDate;
+        this.exceeded = exceeded;
+    }
+
+    public User getBorrower() {
+        return borrower;
+    }
+
+    public int getBorrowerId() {
+        return borrower.getUserId();
+    }
+
+    /* Limit return date, null only for a loan whose date was lost */
+    public Date getLimitReturnDate() {
+        return limitReturnDate;
+    }
+
+    public boolean isExceeded() {
+        return exceeded;
+    }
+
+    /* Returns true if the limit return date is before now */
+    public boolean isOverdue(long now) {
+        return limitReturnDate != null && limitReturnDate.getTime() < now;
+    }
+}
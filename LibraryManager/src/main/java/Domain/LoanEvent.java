@@ -0,0 +1,42 @@
+package Domain;
+
+/* One borrow, extend or return in the loan history, see Library.getUserHistory */
+public class LoanEvent {
+
+    private final String operation;
+    private final int bookId;
+    private final int userId;
+    private final String username;
+    private final long time;
+
+    public LoanEvent(String operation, int bookId, int userId, String username, long time) {
+        this.operation = operation;
+        this.bookId = bookId;
+        this.userId = userId;
+        this.username = username;
+        this.time = time;
+    }
+
+    /* "borrow", "extend" or "return" */
+    public String getOperation() {
+        return operation;
+    }
+
+    public int getBookId() {
+        return bookId;
+    }
+
+    /* ID of the user in the library's string dictionary */
+    public int getUserId() {
+        return userId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    /* Time of the operation in epoch milliseconds */
+    public long getTime() {
+        return time;
+    }
+}
@@ -0,0 +1,191 @@
+package Domain;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Append-only binary log of loan operations. The log is cut into segments that
+ * each cover at most one day; a record is
+ *
+ *   operation (1 byte) | time delta | book ID | user ID
+ *
+ * with the last three as unsigned varints. The time delta is taken from the
+ * previous record of the segment, so operations in quick succession take one
+ * or two bytes for it and a record usually takes 4 to 8 bytes. Every
+ * KEY_INTERVAL-th record of a segment is a key record whose delta is taken from
+ * the segment start instead; a record is decoded from the key record before it.
+ * A record's position is (segment << 16) | offset. Per-user and per-book
+ * indexes list the positions of their records in log order, so a history is
+ * read without scanning the log.
+ *
+ * Not thread-safe, the owning Library calls it under its lock.
+ */
+class LoanHistory {
+
+    static final long SEGMENT_MILLIS = 24L * 60 * 60 * 1000;
+    private static final int SEGMENT_BITS = 16;
+    private static final int SEGMENT_BYTES = 1 << SEGMENT_BITS;
+    private static final int MAX_RECORD = 1 + 3 * 5;
+    private static final int MAX_SEGMENTS = Integer.MAX_VALUE >> SEGMENT_BITS;
+    private static final int KEY_INTERVAL = 32;
+
+    private static final String[] OPERATIONS = { Library.BORROW, Library.EXTEND, Library.RETURN };
+
+    /* Records of one day, or of part of it once SEGMENT_BYTES are full */
+    private static final class Segment {
+        final long start;
+        byte[] data = new byte[256];
+        int size;
+        int records;
+        // Time of the last record, the base of the next delta
+        long last;
+        // Offsets of the key records, ascending
+        int[] keys = new int[4];
+
+        Segment(long start) {
+            this.start = start;
+            this.last = start;
+        }
+
+        /* Offset of the last key record at or before the given record offset */
+        int keyBefore(int at) {
+            int index = Arrays.binarySearch(keys, 0, (records + KEY_INTERVAL - 1) / KEY_INTERVAL, at);
+            return keys[index >= 0 ? index : -index - 2];
+        }
+    }
+
+    // Dictionary of the library, resolves user IDs to names
+    private final StringDictionary names;
+
+    private final List<Segment> segments = new ArrayList<>();
+    private final Map<Integer, SortedIntSet> byUser = new HashMap<>();
+    private final Map<Integer, SortedIntSet> byBook = new HashMap<>();
+    private int events;
+
+    LoanHistory(StringDictionary names) {
+        this.names = names;
+    }
+
+    void append(String operation, int bookId, int userId, long millis) {
+        Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (segment == null || millis < segment.last || millis - segment.start >= SEGMENT_MILLIS
+                || segment.size + MAX_RECORD > SEGMENT_BYTES) {
+            if (segments.size() == MAX_SEGMENTS) {
+                throw new IllegalStateException("Loan history is full");
+            }
+            segment = new Segment(millis - Math.floorMod(millis, SEGMENT_MILLIS));
+            segments.add(segment);
+        }
+        if (segment.size + MAX_RECORD > segment.data.length) {
+            segment.data = Arrays.copyOf(segment.data, Math.min(segment.data.length * 2, SEGMENT_BYTES));
+        }
+
+        int position = ((segments.size() - 1) << SEGMENT_BITS) | segment.size;
+        boolean key = segment.records % KEY_INTERVAL == 0;
+        if (key) {
+            int index = segment.records / KEY_INTERVAL;
+            if (index == segment.keys.length) {
+                segment.keys = Arrays.copyOf(segment.keys, index * 2);
+            }
+            segment.keys[index] = segment.size;
+        }
+        segment.data[segment.size++] = opcode(operation);
+        writeVarint(segment, millis - (key ? segment.start : segment.last));
+        segment.last = millis;
+        segment.records++;
+        writeVarint(segment, bookId & 0xFFFFFFFFL);
+        writeVarint(segment, userId & 0xFFFFFFFFL);
+        byUser.computeIfAbsent(userId, k -> new SortedIntSet()).add(position);
+        byBook.computeIfAbsent(bookId, k -> new SortedIntSet()).add(position);
+        events++;
+    }
+
+    /*
+     * Throws IllegalStateException unless the given number of records certainly
+     * fit, so that a batch can be refused before any of it is applied.
+     */
+    void ensureRoom(int records) {
+        if (segments.size() + 2 + (long) records * MAX_RECORD / SEGMENT_BYTES > MAX_SEGMENTS) {
+            throw new IllegalStateException("Loan history is full");
+        }
+    }
+
+    /* Operations of the user in the order they happened */
+    List<LoanEvent> ofUser(int userId) {
+        return read(byUser.get(userId));
+    }
+
+    /* Operations on the book in the order they happened */
+    List<LoanEvent> ofBook(int bookId) {
+        return read(byBook.get(bookId));
+    }
+
+    int size() {
+        return events;
+    }
+
+    private List<LoanEvent> read(SortedIntSet positions) {
+        if (positions == null) {
+            return new ArrayList<>();
+        }
+        List<LoanEvent> result = new ArrayList<>(positions.size());
+        long[] fields = new long[3];
+        for (int i = 0; i < positions.size(); i++) {
+            int position = positions.get(i);
+            Segment segment = segments.get(position >>> SEGMENT_BITS);
+            int at = position & (SEGMENT_BYTES - 1);
+
+            // Sum the deltas from the key record on
+            int record = segment.keyBefore(at);
+            long time = segment.start;
+            while (true) {
+                int next = decode(segment, record, fields);
+                time += fields[0];
+                if (record == at) {
+                    break;
+                }
+                record = next;
+            }
+            int userId = (int) fields[2];
+            result.add(new LoanEvent(OPERATIONS[segment.data[at]], (int) fields[1], userId, names.get(userId), time));
+        }
+        return result;
+    }
+
+    /* Reads the varint fields of the record at the given offset, returns the offset of the next record */
+    private static int decode(Segment segment, int at, long[] fields) {
+        at++;
+        for (int f = 0; f < fields.length; f++) {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = segment.data[at++];
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            fields[f] = value;
+        }
+        return at;
+    }
+
+    private static byte opcode(String operation) {
+        for (byte code = 0; code < OPERATIONS.length; code++) {
+            if (OPERATIONS[code].equals(operation)) {
+                return code;
+            }
+        }
+        throw new IllegalArgumentException("Unknown loan operation: " + operation);
+    }
+
+    private static void writeVarint(Segment segment, long value) {
+        while ((value & ~0x7FL) != 0) {
+            segment.data[segment.size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        segment.data[segment.size++] = (byte) value;
+    }
+}
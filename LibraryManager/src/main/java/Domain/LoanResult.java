@@ -0,0 +1,15 @@
+package Domain;
+
+/* Outcome of one ID in a borrow, return or extend batch */
+public enum LoanResult {
+    OK,
+    NOT_FOUND,
+    ALREADY_BORROWED,
+    NOT_BORROWED,
+    NOT_BORROWER,
+    LIMIT_REACHED,
+    /* The copy is reserved for another user's hold */
+    ON_HOLD,
+    /* The ID was valid but the all-or-nothing batch failed on another ID */
+    ABORTED
+}
@@ -0,0 +1,150 @@
+package Domain;
+
+import java.sql.Date;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntFunction;
+
+/*
+ * Loan counters and the due-date index, kept up to date by the owning Library:
+ * a loan is removed before it changes and added back afterwards, both in O(1)
+ * apart from the due-date index.
+ *
+ * Overdue loans are tracked with a cursor over due dates: loans due before the
+ * cursor are marked overdue, later ones wait in the index. Advancing the cursor
+ * moves every loan it passes exactly once, so refreshing is amortized O(1) per
+ * loan. Index entries are checked against the book when they come due, which
+ * skips loans whose due date changed behind the library's back.
+ *
+ * Not thread-safe, the owning Library calls it under its lock.
+ */
+class LoanStats {
+
+    private final int firstId;
+
+    private int borrowed;
+    private int extended;
+    private final Map<Integer, Integer> loansPerUser = new HashMap<>();
+
+    // IDs of overdue loans, offset by firstId
+    private final BitSet overdue = new BitSet();
+    private int overdueCount;
+    // Due dates at or after the cursor, with the IDs of the loans due then
+    private final TreeMap<Long, SortedIntSet> pending = new TreeMap<>();
+    private long cursor = Long.MIN_VALUE;
+
+    LoanStats(int firstId) {
+        this.firstId = firstId;
+    }
+
+    /* Counts the loan of a borrowed book */
+    void add(Book book) {
+        if (book.isAvailable()) {
+            return;
+        }
+        borrowed++;
+        if (book.isExceeded()) {
+            extended++;
+        }
+        loansPerUser.merge(book.getBorrowerId(), 1, Integer::sum);
+        Date due = book.getLimitReturnDate();
+        if (due == null) {
+            return;
+        }
+        if (due.getTime() < cursor) {
+            markOverdue(book.getID());
+        } else {
+            pending.computeIfAbsent(due.getTime(), d -> new SortedIntSet()).add(book.getID());
+        }
+    }
+
+    /* Stops counting the loan of a borrowed book, before it changes or leaves */
+    void remove(Book book) {
+        if (book.isAvailable()) {
+            return;
+        }
+        borrowed--;
+        if (book.isExceeded()) {
+            extended--;
+        }
+        loansPerUser.computeIfPresent(book.getBorrowerId(), (user, count) -> count == 1 ? null : count - 1);
+        if (overdue.get(book.getID() - firstId)) {
+            overdue.clear(book.getID() - firstId);
+            overdueCount--;
+            return;
+        }
+        Date due = book.getLimitReturnDate();
+        if (due != null) {
+            SortedIntSet ids = pending.get(due.getTime());
+            if (ids != null) {
+                ids.remove(book.getID());
+                if (ids.isEmpty()) {
+                    pending.remove(due.getTime());
+                }
+            }
+        }
+    }
+
+    /*
+     * Moves the cursor to now and marks the loans that fell due since the last
+     * refresh as overdue. Returns the number of newly overdue loans.
+     */
+    int refresh(long now, IntFunction<Book> books) {
+        if (now <= cursor) {
+            return 0;
+        }
+        int marked = 0;
+        while (!pending.isEmpty() && pending.firstKey() < now) {
+            Map.Entry<Long, SortedIntSet> entry = pending.pollFirstEntry();
+            SortedIntSet ids = entry.getValue();
+            for (int i = 0; i < ids.size(); i++) {
+                Book book = books.apply(ids.get(i));
+                Date due = book == null ? null : book.getLimitReturnDate();
+                if (due != null && due.getTime() == entry.getKey()) {
+                    markOverdue(ids.get(i));
+                    marked++;
+                }
+            }
+        }
+        cursor = now;
+        return marked;
+    }
+
+    private void markOverdue(int id) {
+        overdue.set(id - firstId);
+        overdueCount++;
+    }
+
+    /* IDs of the overdue loans in ascending order */
+    int[] overdueIds() {
+        return overdue.stream().map(row -> row + firstId).toArray();
+    }
+
+    boolean isOverdue(int id) {
+        return id >= firstId && overdue.get(id - firstId);
+    }
+
+    /* Smallest overdue ID of at least fromId, or -1 if there is none */
+    int nextOverdue(int fromId) {
+        int row = overdue.nextSetBit(Math.max(fromId - firstId, 0));
+        return row < 0 ? -1 : row + firstId;
+    }
+
+    int getBorrowed() {
+        return borrowed;
+    }
+
+    int getExtended() {
+        return extended;
+    }
+
+    int getOverdue() {
+        return overdueCount;
+    }
+
+    int getLoans(int userId) {
+        return loansPerUser.getOrDefault(userId, 0);
+    }
+}
@@ -0,0 +1,34 @@
+package Domain;
+
+/* How a search filter value is compared against a title or author */
+public enum MatchMode {
+    EXACT,
+    PREFIX,
+    SUBSTRING;
+
+    /* Returns the mode for its lower-case name, or null if there is none */
+    public static MatchMode parse(String name) {
+        for (MatchMode mode : values()) {
+            if (mode.name().equalsIgnoreCase(name)) {
+                return mode;
+            }
+        }
+        return null;
+    }
+
+    /* Case-insensitive matching uses the same folding as the n-gram index */
+    public boolean matches(String value, String pattern, boolean ignoreCase) {
+        if (ignoreCase) {
+            value = NGramIndex.normalize(value);
+            pattern = NGramIndex.normalize(pattern);
+        }
+        switch (this) {
+            case EXACT:
+                return value.equals(pattern);
+            case PREFIX:
+                return value.startsWith(pattern);
+            default:
+                return value.contains(pattern);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package Domain;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Inverted index from the 1-, 2- and 3-grams of a case-folded text to the IDs of
+ * the books containing them. The text is wrapped in start and end markers, so
+ * prefix and exact lookups are anchored n-gram lookups as well. The markers on
+ * their own are not indexed: they would list every ID.
+ *
+ * Lookups return candidates only: every match is a candidate, but candidates
+ * still have to be verified against the real value.
+ */
+public class NGramIndex {
+
+    private static final int N = 3;
+    private static final char START = '\u0002';
+    private static final char END = '\u0003';
+
+    private final Map<String, SortedIntSet> postings = new HashMap<>();
+
+    /* Case folding used by the index and by case-insensitive matching */
+    public static String normalize(String text) {
+        return text.toLowerCase(Locale.ROOT);
+    }
+
+    public void add(int id, String text) {
+        addRange(id, id, text);
+    }
+
+    /* Indexes every ID in [first, last] under the same text, e.g. copies of one book */
+    public void addRange(int first, int last, String text) {
+        for (String gram : gramsOf(START + normalize(text) + END)) {
+            SortedIntSet ids = postings.computeIfAbsent(gram, g -> new SortedIntSet());
+            for (int id = first; id <= last; id++) {
+                ids.add(id);
+            }
+        }
+    }
+
+    public void remove(int id, String text) {
+        for (String gram : gramsOf(START + normalize(text) + END)) {
+            SortedIntSet ids = postings.get(gram);
+            if (ids != null) {
+                ids.remove(id);
+                if (ids.isEmpty()) {
+                    postings.remove(gram);
+                }
+            }
+        }
+    }
+
+    /*
+     * Removes the ascending IDs, texts[i] being the text of ids[i]. IDs are
+     * grouped per gram first, so each posting list is compacted once.
+     */
+    public void removeAll(int[] ids, String[] texts) {
+        Map<String, int[]> byGram = new HashMap<>();
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            for (String gram : gramsOf(START + normalize(texts[i]) + END)) {
+                int count = counts.getOrDefault(gram, 0);
+                int[] grouped = byGram.get(gram);
+                if (grouped == null || grouped.length == count) {
+                    grouped = grouped == null ? new int[4] : Arrays.copyOf(grouped, count * 2);
+                    byGram.put(gram, grouped);
+                }
+                grouped[count] = ids[i];
+                counts.put(gram, count + 1);
+            }
+        }
+        for (Map.Entry<String, int[]> entry : byGram.entrySet()) {
+            SortedIntSet posting = postings.get(entry.getKey());
+            if (posting != null) {
+                posting.removeAll(entry.getValue(), counts.get(entry.getKey()));
+                if (posting.isEmpty()) {
+                    postings.remove(entry.getKey());
+                }
+            }
+        }
+    }
+
+    /* Returns the sorted candidate IDs for the pattern under the given mode */
+    public int[] candidates(String pattern, MatchMode mode) {
+        String key = normalize(pattern);
+        if (mode != MatchMode.SUBSTRING) {
+            key = START + key;
+        }
+        if (mode == MatchMode.EXACT) {
+            key = key + END;
+        }
+        if (key.isEmpty() || key.length() == 1 && isMarker(key.charAt(0))) {
+            return null;
+        }
+
+        int n = Math.min(N, key.length());
+        SortedIntSet[] lists = new SortedIntSet[key.length() - n + 1];
+        int smallest = 0;
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = postings.get(key.substring(i, i + n));
+            if (lists[i] == null) {
+                return new int[0];
+            }
+            if (lists[i].size() < lists[smallest].size()) {
+                smallest = i;
+            }
+        }
+        return intersect(lists, smallest);
+    }
+
+    /* Walks the smallest posting list and probes the others */
+    private static int[] intersect(SortedIntSet[] lists, int smallest) {
+        SortedIntSet base = lists[smallest];
+        int[] result = new int[base.size()];
+        int count = 0;
+        outer:
+        for (int i = 0; i < base.size(); i++) {
+            int id = base.get(i);
+            for (int j = 0; j < lists.length; j++) {
+                if (j != smallest && !lists[j].contains(id)) {
+                    continue outer;
+                }
+            }
+            result[count++] = id;
+        }
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+
+    private static Set<String> gramsOf(String text) {
+        Set<String> grams = new HashSet<>();
+        for (int n = 1; n <= N; n++) {
+            for (int i = 0; i + n <= text.length(); i++) {
+                if (n > 1 || !isMarker(text.charAt(i))) {
+                    grams.add(text.substring(i, i + n));
+                }
+            }
+        }
+        return grams;
+    }
+
+    private static boolean isMarker(char c) {
+        return c == START || c == END;
+    }
+}
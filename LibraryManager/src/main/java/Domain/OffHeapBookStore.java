@@ -0,0 +1,278 @@
+package Domain;
+
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.util.Arrays;
+
+/*
+ * Book storage outside the Java heap. Every book is a fixed-width record in a
+ * direct ByteBuffer; titles, authors and the rendered catalogue row of each book
+ * are UTF-8 entries in an off-heap arena that records point into. The heap only holds the buffer directories, the
+ * live-row bitset and one dictionary entry per distinct title and author, so the
+ * number of copies does not drive garbage collection work.
+ *
+ * Record layout (native byte order):
+ *   0  ISBN            int
+ *   4  year published  int
+ *   8  title           long  arena reference
+ *   16 author          long  arena reference
+ *   24 due date        long  epoch millis, NO_DUE_DATE when not borrowed
+ *   32 borrower        int   user ID, NO_BORROWER when not borrowed
+ *   36 exceeded        byte
+ *   40 title ID        int   in the library's string dictionary
+ *   44 author ID       int
+ *   48 catalogue row   long  arena reference
+ */
+public class OffHeapBookStore extends RowBookStore {
+
+    private static final int RECORD_SIZE = 56;
+    private static final int ISBN = 0;
+    private static final int YEAR = 4;
+    private static final int TITLE = 8;
+    private static final int AUTHOR = 16;
+    private static final int DUE = 24;
+    private static final int BORROWER = 32;
+    private static final int EXCEEDED = 36;
+    private static final int TITLE_ID = 40;
+    private static final int AUTHOR_ID = 44;
+    private static final int CATALOGUE_ROW = 48;
+
+    private static final int RECORD_BITS = 12;
+    private static final int RECORDS_PER_BUFFER = 1 << RECORD_BITS;
+    private static final int RECORD_MASK = RECORDS_PER_BUFFER - 1;
+
+    private static final int ARENA_BUFFER_SIZE = 1 << 20;
+
+    // Record buffers; the directory is replaced when the store grows
+    private volatile ByteBuffer[] records = new ByteBuffer[0];
+
+    // Byte arena; a reference is (buffer index << 32) | offset of a length-prefixed entry
+    private volatile ByteBuffer[] arena = new ByteBuffer[0];
+    private int arenaPosition = ARENA_BUFFER_SIZE;
+
+    // Consecutive copies share title and author entries
+    private String lastTitle;
+    private long lastTitleRef;
+    private int lastTitleId;
+    private String lastAuthor;
+    private long lastAuthorRef;
+    private int lastAuthorId;
+
+    public OffHeapBookStore(int firstId) {
+        super(firstId);
+    }
+
+    @Override
+    protected void writeRow(int row, int isbn, String title, String author, int yearPublished) {
+        if (!title.equals(lastTitle)) {
+            lastTitleRef = store(title.getBytes(StandardCharsets.UTF_8));
+            lastTitleId = strings.intern(title);
+            lastTitle = title;
+        }
+        if (!author.equals(lastAuthor)) {
+            lastAuthorRef = store(author.getBytes(StandardCharsets.UTF_8));
+            lastAuthorId = strings.intern(author);
+            lastAuthor = author;
+        }
+
+        ByteBuffer[] dir = records;
+        int buffer = row >> RECORD_BITS;
+        if (buffer >= dir.length) {
+            int allocated = dir.length;
+            dir = Arrays.copyOf(dir, Math.max(buffer + 1, allocated * 2));
+            for (int k = allocated; k < dir.length; k++) {
+                dir[k] = allocate(RECORDS_PER_BUFFER * RECORD_SIZE);
+            }
+        }
+        ByteBuffer b = dir[buffer];
+        int at = (row & RECORD_MASK) * RECORD_SIZE;
+        b.putInt(at + ISBN, isbn);
+        b.putInt(at + YEAR, yearPublished);
+        b.putLong(at + TITLE, lastTitleRef);
+        b.putLong(at + AUTHOR, lastAuthorRef);
+        b.putLong(at + DUE, NO_DUE_DATE);
+        b.putInt(at + BORROWER, NO_BORROWER);
+        b.put(at + EXCEEDED, (byte) 0);
+        b.putInt(at + TITLE_ID, lastTitleId);
+        b.putInt(at + AUTHOR_ID, lastAuthorId);
+        b.putLong(at + CATALOGUE_ROW, store(Book.renderCatalogueRow(firstId + row, title, author, yearPublished)));
+        records = dir;
+    }
+
+    @Override
+    protected Book view(int id) {
+        return new OffHeapBook(id);
+    }
+
+    private static ByteBuffer allocate(int capacity) {
+        return ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+    }
+
+    /* Appends a length-prefixed entry to the arena and returns its reference */
+    private long store(byte[] bytes) {
+        int size = Integer.BYTES + bytes.length;
+        ByteBuffer[] dir = arena;
+        if (arenaPosition + size > ARENA_BUFFER_SIZE) {
+            dir = Arrays.copyOf(dir, dir.length + 1);
+            dir[dir.length - 1] = allocate(Math.max(ARENA_BUFFER_SIZE, size));
+            arenaPosition = 0;
+        }
+        int buffer = dir.length - 1;
+        ByteBuffer b = dir[buffer];
+        b.putInt(arenaPosition, bytes.length);
+        b.put(arenaPosition + Integer.BYTES, bytes);
+        long ref = ((long) buffer << 32) | arenaPosition;
+        // An oversized entry fills its own buffer, so the next entry starts a new one
+        arenaPosition += size;
+        arena = dir;
+        return ref;
+    }
+
+    private byte[] loadBytes(long ref) {
+        ByteBuffer b = arena[(int) (ref >>> 32)];
+        int at = (int) ref;
+        byte[] bytes = new byte[b.getInt(at)];
+        b.get(at + Integer.BYTES, bytes);
+        return bytes;
+    }
+
+    private String load(long ref) {
+        return new String(loadBytes(ref), StandardCharsets.UTF_8);
+    }
+
+    // ------------ Book view ------------
+
+    /* A book that reads and writes its off-heap record */
+    private final class OffHeapBook extends Book {
+
+        private final int buffer;
+        private final int at;
+
+        OffHeapBook(int id) {
+            super(id);
+            int row = id - firstId;
+            this.buffer = row >> RECORD_BITS;
+            this.at = (row & RECORD_MASK) * RECORD_SIZE;
+        }
+
+        private ByteBuffer record() {
+            return records[buffer];
+        }
+
+        @Override
+        public int getISBN() {
+            return record().getInt(at + ISBN);
+        }
+
+        @Override
+        public String getTitle() {
+            return load(record().getLong(at + TITLE));
+        }
+
+        @Override
+        public String getAuthor() {
+            return load(record().getLong(at + AUTHOR));
+        }
+
+        @Override
+        public int getTitleId() {
+            return record().getInt(at + TITLE_ID);
+        }
+
+        @Override
+        public int getAuthorId() {
+            return record().getInt(at + AUTHOR_ID);
+        }
+
+        @Override
+        public int getYearPublished() {
+            return record().getInt(at + YEAR);
+        }
+
+        @Override
+        public void writeCatalogueRow(PrintStream out) {
+            byte[] row = loadBytes(record().getLong(at + CATALOGUE_ROW));
+            out.write(row, 0, row.length);
+        }
+
+        @Override
+        public Loan getLoan() {
+            while (true) {
+                int version = beginLoanRead();
+                ByteBuffer b = record();
+                int borrower = b.getInt(at + BORROWER);
+                long due = b.getLong(at + DUE);
+                boolean exceeded = b.get(at + EXCEEDED) != 0;
+                if (loanReadValid(version)) {
+                    if (borrower == NO_BORROWER) {
+                        return null;
+                    }
+                    return new Loan(users.get(borrower), due == NO_DUE_DATE ? null : new Date(due), exceeded);
+                }
+            }
+        }
+
+        @Override
+        public User getBorrower() {
+            return users.get(record().getInt(at + BORROWER));
+        }
+
+        @Override
+        public int getBorrowerId() {
+            return record().getInt(at + BORROWER);
+        }
+
+        @Override
+        public Date getLimitReturnDate() {
+            long due = record().getLong(at + DUE);
+            return due == NO_DUE_DATE ? null : new Date(due);
+        }
+
+        @Override
+        public boolean isExceeded() {
+            return record().get(at + EXCEEDED) != 0;
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return record().getInt(at + BORROWER) == NO_BORROWER;
+        }
+
+        @Override
+        public void borrow(User username, long now) {
+            ByteBuffer b = record();
+            int borrower = users.register(username).getUserId();
+            beginLoanWrite();
+            b.putInt(at + BORROWER, borrower);
+            b.putLong(at + DUE, now + LOAN_DAYS_MILLIS);
+            b.put(at + EXCEEDED, (byte) 0);
+            endLoanWrite();
+        }
+
+        @Override
+        public void returnBook() {
+            ByteBuffer b = record();
+            beginLoanWrite();
+            b.putInt(at + BORROWER, NO_BORROWER);
+            b.putLong(at + DUE, NO_DUE_DATE);
+            b.put(at + EXCEEDED, (byte) 0);
+            endLoanWrite();
+        }
+
+        @Override
+        public void extendLoan() {
+            ByteBuffer b = record();
+            long due = b.getLong(at + DUE);
+            if (due == NO_DUE_DATE) {
+                return; // Cannot extend loan if the book is not borrowed
+            }
+            beginLoanWrite();
+            b.putLong(at + DUE, due + LOAN_DAYS_MILLIS);
+            b.put(at + EXCEEDED, (byte) 1);
+            endLoanWrite();
+        }
+    }
+}
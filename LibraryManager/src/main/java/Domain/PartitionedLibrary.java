@@ -0,0 +1,769 @@
+package Domain;
+
+import java.sql.Date;
+import java.time.Clock;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
+
+/*
+ * Library split into independent partitions, e.g. one per branch. Partition k
+ * owns the identifiers [k * idsPerPartition + 1, (k + 1) * idsPerPartition], so
+ * single-ID operations are routed by arithmetic and only lock their partition.
+ * New books go to the partition chosen by a hash of their ISBN, which keeps all
+ * copies of a title together. Scans and pages fan out over the partitions in
+ * parallel and are concatenated, which already yields ID order; sorted pages
+ * are merged by sort key.
+ *
+ * The session (current user), the string dictionary, the registered users and
+ * the hold waitlists are shared by all partitions.
+ */
+public class PartitionedLibrary extends Library {
+
+    private final Library[] partitions;
+    private final int idsPerPartition;
+
+    public PartitionedLibrary(int partitionCount, int idsPerPartition) {
+        this(partitionCount, idsPerPartition, Clock.systemUTC());
+    }
+
+    /* All partitions read the time from the given clock */
+    public PartitionedLibrary(int partitionCount, int idsPerPartition, Clock clock) {
+        super(1, 0, clock);
+        if (partitionCount <= 0 || idsPerPartition <= 0
+                || (long) partitionCount * idsPerPartition > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid partition layout");
+        }
+        this.idsPerPartition = idsPerPartition;
+        this.partitions = new Library[partitionCount];
+        for (int k = 0; k < partitionCount; k++) {
+            int first = k * idsPerPartition + 1;
+            partitions[k] = new Library(new BookTable(first), first + idsPerPartition - 1, clock, strings, users,
+                    holds);
+        }
+    }
+
+    public int getPartitionCount() {
+        return partitions.length;
+    }
+
+    public Library getPartition(int index) {
+        return partitions[index];
+    }
+
+    /* Partition that owns the given ID, or null if the ID is outside every range */
+    public Library partitionOf(int id) {
+        if (id < 1) {
+            return null;
+        }
+        int index = (id - 1) / idsPerPartition;
+        return index < partitions.length ? partitions[index] : null;
+    }
+
+    /* Partition that receives new copies of the given ISBN */
+    public int partitionForIsbn(int isbn) {
+        int h = isbn * 0x9E3779B9;
+        return Math.floorMod(h ^ (h >>> 16), partitions.length);
+    }
+
+    // ------------ Session ------------
+
+    @Override
+    public void setCurrentUser(User user) {
+        super.setCurrentUser(user);
+        for (Library partition : partitions) {
+            partition.setCurrentUser(getCurrentUser());
+        }
+    }
+
+    // ------------ Book administration ------------
+
+    @Override
+    public Book addSingleBook(int isbn, String title, String author, int yearPublished) {
+        return partitions[partitionForIsbn(isbn)].addSingleBook(isbn, title, author, yearPublished);
+    }
+
+    @Override
+    public int addCopies(int isbn, String title, String author, int yearPublished, int copies) {
+        return partitions[partitionForIsbn(isbn)].addCopies(isbn, title, author, yearPublished, copies);
+    }
+
+    /*
+     * Imports each entry into the partition of its ISBN, in list order within a
+     * partition, and returns the first ID of the first entry. The involved
+     * partitions are locked in index order and checked for free IDs before any
+     * imports, so the import is all or nothing like on a single library.
+     */
+    @Override
+    public int importCatalogue(List<CatalogueEntry> entries) {
+        List<List<CatalogueEntry>> parts = new ArrayList<>();
+        for (int k = 0; k < partitions.length; k++) {
+            parts.add(new ArrayList<>());
+        }
+        for (CatalogueEntry entry : entries) {
+            parts.get(partitionForIsbn(entry.getIsbn())).add(entry);
+        }
+        List<Library> involved = new ArrayList<>();
+        for (int k = 0; k < partitions.length; k++) {
+            if (!parts.get(k).isEmpty()) {
+                involved.add(partitions[k]);
+            }
+        }
+
+        int[] first = new int[partitions.length];
+        withLocks(involved, 0, () -> {
+            for (int k = 0; k < partitions.length; k++) {
+                if (!parts.get(k).isEmpty()) {
+                    partitions[k].checkImport(parts.get(k));
+                }
+            }
+            for (int k = 0; k < partitions.length; k++) {
+                if (!parts.get(k).isEmpty()) {
+                    first[k] = partitions[k].importCatalogue(parts.get(k));
+                }
+            }
+        });
+        return entries.isEmpty() ? -1 : first[partitionForIsbn(entries.get(0).getIsbn())];
+    }
+
+    /* Adds a book to an explicitly chosen partition, e.g. the receiving branch */
+    public Book addSingleBookToPartition(int partition, int isbn, String title, String author, int yearPublished) {
+        return partitions[partition].addSingleBook(isbn, title, author, yearPublished);
+    }
+
+    @Override
+    public Book getBookById(int id) {
+        Library partition = partitionOf(id);
+        return partition == null ? null : partition.getBookById(id);
+    }
+
+    /* Concatenation of the partition snapshots, each one taken on first use */
+    @Override
+    public List<Book> getAllBooks() {
+        List<List<Book>> parts = new ArrayList<>(partitions.length);
+        for (Library partition : partitions) {
+            parts.add(partition.getAllBooks());
+        }
+        return new ConcatenatedList(parts);
+    }
+
+    @Override
+    public List<Book> findBooks(Predicate<Book> filter) {
+        return fanOut(partition -> partition.findBooks(filter));
+    }
+
+    @Override
+    public boolean removeBook(int id) {
+        Library partition = partitionOf(id);
+        return partition != null && partition.removeBook(id);
+    }
+
+    @Override
+    public int[] removeRange(int first, int last) {
+        int[][] removed = new int[partitions.length][];
+        int total = 0;
+        for (int k = 0; k < partitions.length; k++) {
+            int low = k * idsPerPartition + 1;
+            int high = low + idsPerPartition - 1;
+            if (last < low || first > high) {
+                removed[k] = new int[0];
+                continue;
+            }
+            removed[k] = partitions[k].removeRange(Math.max(first, low), Math.min(last, high));
+            total += removed[k].length;
+        }
+        int[] result = new int[total];
+        int offset = 0;
+        for (int[] part : removed) {
+            System.arraycopy(part, 0, result, offset, part.length);
+            offset += part.length;
+        }
+        return result;
+    }
+
+    // -------- Bloom filters --------
+
+    @Override
+    public void rebuildFilters(int capacity) {
+        for (Library partition : partitions) {
+            partition.rebuildFilters(capacity);
+        }
+    }
+
+    @Override
+    public boolean mayMatch(SearchQuery query) {
+        for (Library partition : partitions) {
+            if (partition.mayMatch(query)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean mayHaveIsbn(int isbn) {
+        for (Library partition : partitions) {
+            if (partition.mayHaveIsbn(isbn)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // -------- Search --------
+
+    @Override
+    public List<Book> search(SearchQuery query) {
+        return fanOut(partition -> partition.search(query));
+    }
+
+    /* Each partition caches its own results */
+    @Override
+    public SearchCacheStats getSearchCacheStats() {
+        SearchCacheStats total = new SearchCacheStats(0, 0, 0, 0);
+        for (Library partition : partitions) {
+            total = total.plus(partition.getSearchCacheStats());
+        }
+        return total;
+    }
+
+    /* Runs the query on every partition in parallel and concatenates in ID order */
+    private List<Book> fanOut(Function<Library, List<Book>> query) {
+        List<List<Book>> parts = Arrays.asList(partitions).parallelStream()
+                .map(query)
+                .toList();
+        List<Book> result = new ArrayList<>();
+        for (List<Book> part : parts) {
+            result.addAll(part);
+        }
+        return result;
+    }
+
+    // -------- Pages --------
+
+    /*
+     * Pages fan out like the scans: every partition that can hold a result
+     * computes its own first offset + limit + 1 matches in parallel, and the
+     * partial pages are merged, see gather and gatherSorted.
+     */
+    @Override
+    public BookPage findPage(Predicate<Book> filter, int fromId, int offset, int limit) {
+        if (filter == null && fromId <= 1) {
+            // Whole partitions before the offset are skipped by their size
+            int skip = offset;
+            int k = 0;
+            while (k < partitions.length) {
+                int size = partitions[k].getAllBooks().size();
+                if (skip < size) {
+                    break;
+                }
+                skip -= size;
+                k++;
+            }
+            if (k == partitions.length) {
+                return new BookPage(new ArrayList<>(), -1);
+            }
+            if (k > 0) {
+                return findPage(null, k * idsPerPartition + 1, skip, limit);
+            }
+        }
+        return gather(fromId, offset, limit, (partition, want) -> partition.findPage(filter, fromId, 0, want));
+    }
+
+    @Override
+    public BookPage searchPage(SearchQuery query, int fromId, int offset, int limit) {
+        return gather(fromId, offset, limit, (partition, want) -> partition.searchPage(query, fromId, 0, want));
+    }
+
+    @Override
+    public BookPage findOverduePage(Predicate<Book> filter, int fromId, int offset, int limit) {
+        return gather(fromId, offset, limit, (partition, want) -> partition.findOverduePage(filter, fromId, 0, want));
+    }
+
+    @Override
+    public BookPage findSortedPage(SortOrder order, Predicate<Book> filter, String cursor, int offset, int limit) {
+        return gatherSorted(order, offset, limit,
+                (partition, want) -> partition.findSortedPage(order, filter, cursor, 0, want));
+    }
+
+    @Override
+    public BookPage searchSortedPage(SortOrder order, SearchQuery query, String cursor, int offset, int limit) {
+        return gatherSorted(order, offset, limit,
+                (partition, want) -> partition.searchSortedPage(order, query, cursor, 0, want));
+    }
+
+    @Override
+    public BookPage findOverdueSortedPage(SortOrder order, Predicate<Book> filter, String cursor, int offset,
+            int limit) {
+        return gatherSorted(order, offset, limit,
+                (partition, want) -> partition.findOverdueSortedPage(order, filter, cursor, 0, want));
+    }
+
+    /* Number of matches each partition contributes to a page: enough to skip, fill it and see a next one */
+    private static int wanted(int offset, int limit) {
+        return (int) Math.min((long) offset + limit + 1, Integer.MAX_VALUE);
+    }
+
+    /* Partial pages of the partitions from the one holding fromId on, computed in parallel */
+    private List<BookPage> partialPages(int fromId, BiFunction<Library, Integer, BookPage> query, int want) {
+        int first = fromId <= 1 ? 0 : Math.min((fromId - 1) / idsPerPartition, partitions.length);
+        return Arrays.asList(partitions).subList(first, partitions.length).parallelStream()
+                .map(partition -> query.apply(partition, want))
+                .toList();
+    }
+
+    /* Page in ID order; partitions own ascending ID ranges, so the partial pages are concatenated */
+    private BookPage gather(int fromId, int offset, int limit, BiFunction<Library, Integer, BookPage> query) {
+        List<Book> matches = new ArrayList<>();
+        for (BookPage part : partialPages(fromId, query, wanted(offset, limit))) {
+            matches.addAll(part.getBooks());
+        }
+        if (offset >= matches.size()) {
+            return new BookPage(new ArrayList<>(), -1);
+        }
+        int end = (int) Math.min((long) offset + limit, matches.size());
+        return new BookPage(new ArrayList<>(matches.subList(offset, end)),
+                end < matches.size() ? matches.get(end).getID() : -1);
+    }
+
+    /*
+     * Sorted page from a k-way merge of the partial pages, keeping the head of
+     * each in a heap. A book whose due date went away since its partition listed
+     * it is dropped, as the partition would drop it now.
+     */
+    private BookPage gatherSorted(SortOrder order, int offset, int limit,
+            BiFunction<Library, Integer, BookPage> query) {
+        List<BookPage> parts = partialPages(0, query, wanted(offset, limit));
+        long[][] entries = new long[parts.size()][];
+        Book[][] books = new Book[parts.size()][];
+        for (int k = 0; k < parts.size(); k++) {
+            List<Book> part = parts.get(k).getBooks();
+            entries[k] = new long[part.size()];
+            books[k] = new Book[part.size()];
+            int count = 0;
+            for (Book b : part) {
+                long key = order.keyOf(b, strings);
+                if (key != SortOrder.NONE) {
+                    entries[k][count] = SortIndex.entry(key, b.getID());
+                    books[k][count++] = b;
+                }
+            }
+            entries[k] = Arrays.copyOf(entries[k], count);
+        }
+
+        Comparator<Long> comparator = SortIndex.comparator(order, strings);
+        int[] position = new int[parts.size()];
+        PriorityQueue<Integer> queue = new PriorityQueue<>(Math.max(parts.size(), 1),
+                (a, b) -> comparator.compare(entries[a][position[a]], entries[b][position[b]]));
+        for (int k = 0; k < parts.size(); k++) {
+            if (entries[k].length > 0) {
+                queue.add(k);
+            }
+        }
+        List<Book> result = new ArrayList<>(Math.min(limit, 64));
+        for (int skipped = 0; !queue.isEmpty();) {
+            int k = queue.poll();
+            int i = position[k]++;
+            if (position[k] < entries[k].length) {
+                queue.add(k);
+            }
+            if (skipped < offset) {
+                skipped++;
+            } else if (result.size() < limit) {
+                result.add(books[k][i]);
+            } else {
+                return new BookPage(result, BookPage.encodeSortedCursor(entries[k][i]));
+            }
+        }
+        return new BookPage(result, null);
+    }
+
+    // -------- Borrow operations --------
+
+    @Override
+    public void borrowBook(int id) {
+        partitionOf(id).borrowBook(id);
+    }
+
+    /*
+     * Picks up the copy reserved for the current user if there is one, otherwise
+     * tries the partition that receives copies of the ISBN first, then the others
+     */
+    @Override
+    public Book borrowByIsbn(int isbn) {
+        int reserved = holds.reservedCopy(getCurrentUser().getUserId(), isbn);
+        if (reserved != Book.NO_BORROWER) {
+            Book book = partitionOf(reserved).borrowByIsbn(isbn);
+            if (book != null) {
+                return book;
+            }
+        }
+        int home = partitionForIsbn(isbn);
+        for (int k = 0; k < partitions.length; k++) {
+            Library partition = partitions[(home + k) % partitions.length];
+            Book book = partition.mayHaveIsbn(isbn) ? partition.borrowByIsbn(isbn) : null;
+            if (book != null) {
+                return book;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void returnBook(int id) {
+        partitionOf(id).returnBook(id);
+    }
+
+    @Override
+    public void extendLoan(int id) {
+        partitionOf(id).extendLoan(id);
+    }
+
+    @Override
+    public LoanResult[] borrowBooks(int[] ids, boolean atomic) {
+        return routeLoans(Library.BORROW, ids, atomic);
+    }
+
+    @Override
+    public LoanResult[] returnBooks(int[] ids, boolean atomic) {
+        return routeLoans(Library.RETURN, ids, atomic);
+    }
+
+    @Override
+    public LoanResult[] extendLoans(int[] ids, boolean atomic) {
+        return routeLoans(Library.EXTEND, ids, atomic);
+    }
+
+    /*
+     * Splits a batch by partition, keeping the order of IDs within a partition.
+     * An atomic batch locks every involved partition in index order, validates
+     * all of them and only then applies.
+     */
+    private LoanResult[] routeLoans(String operation, int[] ids, boolean atomic) {
+        LoanResult[] results = new LoanResult[ids.length];
+        int[][] positions = new int[partitions.length][];
+        int[] counts = new int[partitions.length];
+        for (int i = 0; i < ids.length; i++) {
+            Library partition = partitionOf(ids[i]);
+            if (partition == null) {
+                results[i] = LoanResult.NOT_FOUND;
+                continue;
+            }
+            int k = (ids[i] - 1) / idsPerPartition;
+            if (positions[k] == null) {
+                positions[k] = new int[ids.length];
+            }
+            positions[k][counts[k]++] = i;
+        }
+
+        List<Library> involved = new ArrayList<>();
+        int[][] batches = new int[partitions.length][];
+        for (int k = 0; k < partitions.length; k++) {
+            if (counts[k] > 0) {
+                involved.add(partitions[k]);
+                batches[k] = new int[counts[k]];
+                for (int j = 0; j < counts[k]; j++) {
+                    batches[k][j] = ids[positions[k][j]];
+                }
+            }
+        }
+
+        if (!atomic) {
+            for (int k = 0; k < partitions.length; k++) {
+                if (batches[k] != null) {
+                    LoanResult[] part = partitions[k].loanBatch(operation, batches[k], false);
+                    scatter(part, positions[k], results);
+                }
+            }
+            return results;
+        }
+
+        boolean outsideAll = !allOk(results);
+        long now = getClock().millis();
+        withLocks(involved, 0, () -> {
+            for (Library partition : involved) {
+                partition.expireHolds(now);
+            }
+            LoanResult[][] parts = new LoanResult[partitions.length][];
+            boolean ok = !outsideAll;
+            for (int k = 0; k < partitions.length; k++) {
+                if (batches[k] != null) {
+                    parts[k] = partitions[k].validateLoans(operation, batches[k]);
+                    ok &= allOk(parts[k]);
+                }
+            }
+            if (ok) {
+                for (int k = 0; k < partitions.length; k++) {
+                    if (batches[k] != null) {
+                        partitions[k].ensureHistoryRoom(batches[k].length);
+                    }
+                }
+            }
+            for (int k = 0; k < partitions.length; k++) {
+                if (batches[k] == null) {
+                    continue;
+                }
+                if (ok) {
+                    partitions[k].applyLoans(operation, batches[k]);
+                }
+                scatter(parts[k], positions[k], results);
+            }
+            if (!ok) {
+                markAborted(results);
+            }
+        });
+        return results;
+    }
+
+    private static void scatter(LoanResult[] part, int[] positions, LoanResult[] results) {
+        for (int j = 0; j < part.length; j++) {
+            results[positions[j]] = part[j];
+        }
+    }
+
+    /* Runs the action while holding the monitors of all given partitions */
+    private static void withLocks(List<Library> libraries, int index, Runnable action) {
+        if (index == libraries.size()) {
+            action.run();
+            return;
+        }
+        synchronized (libraries.get(index)) {
+            withLocks(libraries, index + 1, action);
+        }
+    }
+
+    // -------- Transactions --------
+
+    /* Locks the partitions of every ID in index order, then validates and applies as one */
+    @Override
+    public LoanResult[] commitTransaction(Transaction transaction, IntConsumer onApplied) {
+        boolean[] touched = new boolean[partitions.length];
+        for (int i = 0; i < transaction.size(); i++) {
+            if (partitionOf(transaction.getId(i)) != null) {
+                touched[(transaction.getId(i) - 1) / idsPerPartition] = true;
+            }
+        }
+        List<Library> involved = new ArrayList<>();
+        for (int k = 0; k < partitions.length; k++) {
+            if (touched[k]) {
+                involved.add(partitions[k]);
+            }
+        }
+
+        LoanResult[][] results = new LoanResult[1][];
+        long now = getClock().millis();
+        withLocks(involved, 0, () -> {
+            for (Library partition : involved) {
+                partition.expireHolds(now);
+            }
+            results[0] = validateTransaction(transaction);
+            if (!allOk(results[0])) {
+                markAborted(results[0]);
+                return;
+            }
+            for (Library partition : involved) {
+                partition.ensureHistoryRoom(transaction.size());
+            }
+            journal(transaction);
+            for (int i = 0; i < transaction.size(); i++) {
+                int id = transaction.getId(i);
+                partitionOf(id).applyLoans(transaction.getOperation(i), new int[] { id });
+                onApplied.accept(i);
+            }
+        });
+        return results[0];
+    }
+
+    @Override
+    LoanResult checkLoan(String operation, int id) {
+        Library partition = partitionOf(id);
+        return partition == null ? LoanResult.NOT_FOUND : partition.checkLoan(operation, id);
+    }
+
+    @Override
+    boolean hasWaitingHolds(int id) {
+        Library partition = partitionOf(id);
+        return partition != null && partition.hasWaitingHolds(id);
+    }
+
+    // -------- Statistics --------
+
+    /* ISBNs are counted per partition, so copies added to several partitions count more than once */
+    @Override
+    public CatalogueStats getStats(long now) {
+        CatalogueStats total = new CatalogueStats(0, 0, 0, 0, 0);
+        for (Library partition : partitions) {
+            total = total.plus(partition.getStats(now));
+        }
+        return total;
+    }
+
+    @Override
+    public int sweepOverdue() {
+        int marked = 0;
+        for (Library partition : partitions) {
+            marked += partition.sweepOverdue();
+        }
+        return marked;
+    }
+
+    @Override
+    public List<Book> getOverdueBooks() {
+        List<Book> result = new ArrayList<>();
+        for (Library partition : partitions) {
+            result.addAll(partition.getOverdueBooks());
+        }
+        return result;
+    }
+
+    @Override
+    public void sweep() {
+        for (Library partition : partitions) {
+            partition.sweep();
+        }
+    }
+
+    @Override
+    public int getLoanCount(int userId) {
+        int total = 0;
+        for (Library partition : partitions) {
+            total += partition.getLoanCount(userId);
+        }
+        return total;
+    }
+
+    // -------- History --------
+
+    /* Each partition logs the loans of its books; merged by time, ties in partition order */
+    @Override
+    public List<LoanEvent> getUserHistory(int userId) {
+        List<LoanEvent> result = new ArrayList<>();
+        for (Library partition : partitions) {
+            result.addAll(partition.getUserHistory(userId));
+        }
+        result.sort(Comparator.comparingLong(LoanEvent::getTime));
+        return result;
+    }
+
+    @Override
+    public List<LoanEvent> getBookHistory(int id) {
+        Library partition = partitionOf(id);
+        return partition == null ? new ArrayList<>() : partition.getBookHistory(id);
+    }
+
+    // -------- Holds --------
+
+    /*
+     * The waitlists are shared, so a copy returned in any partition goes to the
+     * next waiting user. Every partition is locked while the hold is placed, so
+     * no copy can be returned unseen between the check for free copies and the
+     * queueing.
+     */
+    @Override
+    public HoldResult placeHold(int isbn) {
+        HoldResult[] result = new HoldResult[1];
+        long now = getClock().millis();
+        withLocks(Arrays.asList(partitions), 0, () -> {
+            boolean exists = false;
+            boolean free = false;
+            for (Library partition : partitions) {
+                partition.expireHolds(now);
+                if (partition.mayHaveIsbn(isbn)) {
+                    exists |= partition.hasCopies(isbn);
+                    free |= partition.hasFreeCopy(isbn);
+                }
+            }
+            result[0] = partitions[0].queueHold(isbn, exists, free);
+        });
+        return result[0];
+    }
+
+    @Override
+    public User getHolder(int id) {
+        Library partition = partitionOf(id);
+        return partition == null ? null : partition.getHolder(id);
+    }
+
+    @Override
+    public Date getHoldDeadline(int id) {
+        Library partition = partitionOf(id);
+        return partition == null ? null : partition.getHoldDeadline(id);
+    }
+
+    @Override
+    public int expireHolds(long now) {
+        int expired = 0;
+        for (Library partition : partitions) {
+            expired += partition.expireHolds(now);
+        }
+        return expired;
+    }
+
+    /* Read-only list over consecutive partition snapshots */
+    private static final class ConcatenatedList extends AbstractList<Book> {
+
+        private final List<List<Book>> parts;
+        private final int size;
+
+        ConcatenatedList(List<List<Book>> parts) {
+            this.parts = parts;
+            int total = 0;
+            for (List<Book> part : parts) {
+                total += part.size();
+            }
+            this.size = total;
+        }
+
+        @Override
+        public Book get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            for (List<Book> part : parts) {
+                if (index < part.size()) {
+                    return part.get(index);
+                }
+                index -= part.size();
+            }
+            throw new IndexOutOfBoundsException(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Iterator<Book> iterator() {
+            Iterator<List<Book>> outer = parts.iterator();
+            return new Iterator<Book>() {
+                private Iterator<Book> inner = outer.hasNext() ? outer.next().iterator() : null;
+
+                @Override
+                public boolean hasNext() {
+                    while (inner != null && !inner.hasNext()) {
+                        inner = outer.hasNext() ? outer.next().iterator() : null;
+                    }
+                    return inner != null;
+                }
+
+                @Override
+                public Book next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return inner.next();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package Domain;
+
+import java.lang.invoke.VarHandle;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/*
+ * Membership bookkeeping shared by stores that keep books as rows addressed by
+ * ID (row = ID - firstId) and hand out Book views over them.
+ *
+ * Borrowers are stored as user IDs and resolved through the user registry of
+ * the owning library.
+ *
+ * Snapshots own a live-row bitset: appends set bits beyond every published limit
+ * in place, a removal publishes a copy. Row data itself is shared; removed rows
+ * keep their values, so views returned by remove stay readable.
+ */
+abstract class RowBookStore implements BookStore {
+
+    static final long NO_DUE_DATE = Long.MIN_VALUE;
+    static final int NO_BORROWER = Book.NO_BORROWER;
+    static final long LOAN_DAYS_MILLIS = Book.LOAN_DAYS_MILLIS;
+
+    protected final int firstId;
+
+    /*
+     * Sequence lock over the loan fields of every row. Loan changes come from the
+     * library lock only; the version is odd while one is written, and readers
+     * retry until they read the fields of one row without a write in between.
+     */
+    private volatile int loanVersion;
+
+    private volatile RowSnapshot current = new RowSnapshot(new long[0], 0, 0);
+
+    // Dictionary and user registry of the owning library, see attach
+    protected StringDictionary strings;
+    protected UserRegistry users;
+
+    RowBookStore(int firstId) {
+        this.firstId = firstId;
+    }
+
+    @Override
+    public void attach(StringDictionary strings, UserRegistry users) {
+        if (this.strings != null && this.strings != strings) {
+            throw new IllegalStateException("Book store already belongs to a library");
+        }
+        this.strings = strings;
+        this.users = users;
+    }
+
+    @Override
+    public int getLoanWrites() {
+        return loanVersion >>> 1;
+    }
+
+    /* Brackets a change of loan fields; the caller holds the library lock */
+    protected final void beginLoanWrite() {
+        loanVersion++;
+        VarHandle.storeStoreFence();
+    }
+
+    protected final void endLoanWrite() {
+        loanVersion++;
+    }
+
+    /* Starts a read of loan fields, returning the version to pass to loanReadValid */
+    protected final int beginLoanRead() {
+        int version;
+        while (((version = loanVersion) & 1) != 0) {
+            Thread.onSpinWait();
+        }
+        return version;
+    }
+
+    /* True if no loan was written since beginLoanRead returned the version */
+    protected final boolean loanReadValid(int version) {
+        VarHandle.loadLoadFence();
+        return loanVersion == version;
+    }
+
+    /* Stores the attributes of a new row; called before the row is published */
+    protected abstract void writeRow(int row, int isbn, String title, String author, int yearPublished);
+
+    /* Returns a book backed by the row of the given ID */
+    protected abstract Book view(int id);
+
+    @Override
+    public int getFirstId() {
+        return firstId;
+    }
+
+    @Override
+    public Book add(int id, int isbn, String title, String author, int yearPublished) {
+        RowSnapshot s = current;
+        int row = id - firstId;
+        if (row < s.limit) {
+            throw new IllegalArgumentException("ID " + id + " is not beyond the table end");
+        }
+        writeRow(row, isbn, title, author, yearPublished);
+
+        long[] live = s.live;
+        if ((row >> 6) >= live.length) {
+            live = Arrays.copyOf(live, Math.max((row >> 6) + 1, live.length * 2));
+        }
+        // Bits at or beyond s.limit are not read through any published snapshot
+        live[row >> 6] |= 1L << row;
+        current = new RowSnapshot(live, row + 1, s.size + 1);
+        return view(id);
+    }
+
+    @Override
+    public Book get(int id) {
+        return current.getById(id);
+    }
+
+    @Override
+    public Book remove(int id) {
+        Book[] removed = removeRange(id, id);
+        return removed.length == 0 ? null : removed[0];
+    }
+
+    @Override
+    public Book[] removeRange(int first, int last) {
+        RowSnapshot s = current;
+        long from = Math.max((long) first - firstId, 0);
+        long to = Math.min((long) last - firstId, s.limit - 1L);
+        if (from > to) {
+            return new Book[0];
+        }
+
+        long[] live = s.live.clone();
+        Book[] removed = new Book[(int) Math.min(to - from + 1, s.size)];
+        int count = 0;
+        for (int row = (int) from; row <= to; row++) {
+            if ((live[row >> 6] & (1L << row)) != 0) {
+                live[row >> 6] &= ~(1L << row);
+                removed[count++] = view(firstId + row);
+            }
+        }
+        if (count == 0) {
+            return new Book[0];
+        }
+        current = new RowSnapshot(live, s.limit, s.size - count);
+        return Arrays.copyOf(removed, count);
+    }
+
+    @Override
+    public BookStore.Snapshot snapshot() {
+        return current;
+    }
+
+    // ------------ Snapshot ------------
+
+    private final class RowSnapshot extends AbstractList<Book> implements BookStore.Snapshot {
+
+        private final long[] live;
+        private final int limit;
+        private final int size;
+
+        RowSnapshot(long[] live, int limit, int size) {
+            this.live = live;
+            this.limit = limit;
+            this.size = size;
+        }
+
+        private boolean isLive(long row) {
+            return row >= 0 && row < limit && (live[(int) (row >> 6)] & (1L << row)) != 0;
+        }
+
+        @Override
+        public Book getById(int id) {
+            return isLive((long) id - firstId) ? view(id) : null;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        /* Counts live rows a word at a time */
+        @Override
+        public Book get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            int remaining = index;
+            for (int w = 0; ; w++) {
+                long word = live[w] & maskBelowLimit(w);
+                int bits = Long.bitCount(word);
+                if (remaining < bits) {
+                    for (int k = 0; k < remaining; k++) {
+                        word &= word - 1;
+                    }
+                    return view(firstId + (w << 6) + Long.numberOfTrailingZeros(word));
+                }
+                remaining -= bits;
+            }
+        }
+
+        private long maskBelowLimit(int word) {
+            int bitsInWord = limit - (word << 6);
+            return bitsInWord >= 64 ? -1L : (1L << bitsInWord) - 1;
+        }
+
+        @Override
+        public Iterator<Book> iterator() {
+            return iteratorFrom(firstId);
+        }
+
+        @Override
+        public Iterator<Book> iteratorFrom(int fromId) {
+            long start = Math.max((long) fromId - firstId, 0);
+            return new Iterator<Book>() {
+                private int word = (int) Math.min(start >> 6, Integer.MAX_VALUE >> 6);
+                private long bits = start < limit ? live[word] & maskBelowLimit(word) & (-1L << start) : 0;
+
+                @Override
+                public boolean hasNext() {
+                    while (bits == 0) {
+                        word++;
+                        if ((word << 6) >= limit) {
+                            return false;
+                        }
+                        bits = live[word] & maskBelowLimit(word);
+                    }
+                    return true;
+                }
+
+                @Override
+                public Book next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    int row = (word << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    return view(firstId + row);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package Domain;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Bounded LRU cache of search results, keyed by the normalised filters. Each
+ * result carries the version stamp its query depended on: the stamp of the
+ * exact title, else the exact author, else the year, else the whole catalogue.
+ * Adding or removing a book bumps the stamps of its title, author and year, so
+ * only results those books could change go stale; a stale result is dropped on
+ * its next lookup. Results are bounded by count and by their total number of
+ * IDs. Not thread-safe; Library uses it under its lock.
+ */
+class SearchCache {
+
+    static final int MAX_ENTRIES = 256;
+    static final int MAX_WEIGHT = 1 << 20;
+
+    private static final class Entry {
+        final long stamp;
+        final int[] ids;
+
+        Entry(long stamp, int[] ids) {
+            this.stamp = stamp;
+            this.ids = ids;
+        }
+    }
+
+    private final int maxEntries;
+    private final int maxWeight;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+
+    // Version stamps; a value never stamped reads as 0
+    private final Map<String, Long> titleStamps = new HashMap<>();
+    private final Map<String, Long> authorStamps = new HashMap<>();
+    private final Map<Integer, Long> yearStamps = new HashMap<>();
+    private long catalogueStamp;
+    private long lastStamp;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    SearchCache() {
+        this(MAX_ENTRIES, MAX_WEIGHT);
+    }
+
+    /* maxWeight bounds the total number of IDs held by all results */
+    SearchCache(int maxEntries, int maxWeight) {
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+    }
+
+    /* Returns the cached IDs matching the query, or null if there is no current result */
+    int[] get(SearchQuery query) {
+        String key = keyOf(query);
+        Entry entry = entries.get(key);
+        if (entry != null && entry.stamp == stamp(query)) {
+            hits++;
+            return entry.ids;
+        }
+        if (entry != null) {
+            entries.remove(key);
+            weight -= entry.ids.length;
+        }
+        misses++;
+        return null;
+    }
+
+    /* Number of cached IDs matching the query, or -1 if there is no current result; not counted as a lookup */
+    int cachedSize(SearchQuery query) {
+        Entry entry = entries.get(keyOf(query));
+        return entry != null && entry.stamp == stamp(query) ? entry.ids.length : -1;
+    }
+
+    /* Current version stamp of the query, to be passed to put with its result */
+    long stamp(SearchQuery query) {
+        if (query.getMode() == MatchMode.EXACT) {
+            if (query.getTitle() != null) {
+                return titleStamps.getOrDefault(NGramIndex.normalize(query.getTitle()), 0L);
+            }
+            if (query.getAuthor() != null) {
+                return authorStamps.getOrDefault(NGramIndex.normalize(query.getAuthor()), 0L);
+            }
+        }
+        if (query.getYear() != null) {
+            return yearStamps.getOrDefault(query.getYear(), 0L);
+        }
+        return catalogueStamp;
+    }
+
+    /* Caches a result computed at the given stamp, unless the catalogue has changed since */
+    void put(SearchQuery query, long stamp, int[] ids) {
+        if (ids.length > maxWeight || stamp != stamp(query)) {
+            return;
+        }
+        Entry previous = entries.put(keyOf(query), new Entry(stamp, ids));
+        if (previous != null) {
+            weight -= previous.ids.length;
+        }
+        weight += ids.length;
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (entries.size() > maxEntries || weight > maxWeight) {
+            weight -= eldest.next().ids.length;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /* Invalidates the results a book with these fields could appear in */
+    void touch(String title, String author, int year) {
+        long stamp = ++lastStamp;
+        titleStamps.put(NGramIndex.normalize(title), stamp);
+        authorStamps.put(NGramIndex.normalize(author), stamp);
+        yearStamps.put(year, stamp);
+        catalogueStamp = stamp;
+    }
+
+    SearchCacheStats stats() {
+        return new SearchCacheStats(hits, misses, evictions, entries.size());
+    }
+
+    /* Key of the query; case-insensitive values are folded */
+    private static String keyOf(SearchQuery query) {
+        String title = query.getTitle();
+        String author = query.getAuthor();
+        if (query.isIgnoreCase()) {
+            title = title == null ? null : NGramIndex.normalize(title);
+            author = author == null ? null : NGramIndex.normalize(author);
+        }
+        return query.getMode() + (query.isIgnoreCase() ? "/i/" : "/s/")
+                + (title == null ? "" : "t" + title.length() + ":" + title)
+                + (author == null ? "" : "a" + author.length() + ":" + author)
+                + (query.getYear() == null ? "" : "d" + query.getYear());
+    }
+}
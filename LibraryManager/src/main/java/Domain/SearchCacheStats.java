@@ -0,0 +1,39 @@
+package Domain;
+
+/* Point-in-time counters of the search result cache, see Library.getSearchCacheStats */
+public class SearchCacheStats {
+
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final int entries;
+
+    public SearchCacheStats(long hits, long misses, long evictions, int entries) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.entries = entries;
+    }
+
+    /* Sum of the counters of both, e.g. of two partitions */
+    public SearchCacheStats plus(SearchCacheStats other) {
+        return new SearchCacheStats(hits + other.hits, misses + other.misses, evictions + other.evictions,
+                entries + other.entries);
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public int getEntries() {
+        return entries;
+    }
+}
@@ -0,0 +1,71 @@
+package Domain;
+
+import java.util.function.Predicate;
+
+/*
+ * Filters of a catalogue search. Unset filters are null; title and author are
+ * compared according to the match mode and case rule. A library compares exact
+ * case-sensitive filters by string dictionary ID, see matcher.
+ */
+public class SearchQuery {
+
+    private final String title;
+    private final String author;
+    private final Integer year;
+    private final MatchMode mode;
+    private final boolean ignoreCase;
+    private final boolean byId;
+
+    public SearchQuery(String title, String author, Integer year, MatchMode mode, boolean ignoreCase) {
+        this.title = title;
+        this.author = author;
+        this.year = year;
+        this.mode = mode == null ? MatchMode.EXACT : mode;
+        this.ignoreCase = ignoreCase;
+        this.byId = this.mode == MatchMode.EXACT && !ignoreCase;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getAuthor() {
+        return author;
+    }
+
+    public Integer getYear() {
+        return year;
+    }
+
+    public MatchMode getMode() {
+        return mode;
+    }
+
+    public boolean isIgnoreCase() {
+        return ignoreCase;
+    }
+
+    /* Returns true if the book passes every filter that is set */
+    public boolean matches(Book book) {
+        if (title != null && !mode.matches(book.getTitle(), title, ignoreCase)) {
+            return false;
+        }
+        if (author != null && !mode.matches(book.getAuthor(), author, ignoreCase)) {
+            return false;
+        }
+        return year == null || book.getYearPublished() == year;
+    }
+
+    /* Like matches, for the books of the library owning the dictionary */
+    Predicate<Book> matcher(StringDictionary strings) {
+        if (!byId) {
+            return this::matches;
+        }
+        // A value missing from the dictionary is not the title or author of any book
+        int titleId = title == null ? StringDictionary.ABSENT : strings.find(title);
+        int authorId = author == null ? StringDictionary.ABSENT : strings.find(author);
+        return book -> (title == null || book.getTitleId() == titleId)
+                && (author == null || book.getAuthorId() == authorId)
+                && (year == null || book.getYearPublished() == year);
+    }
+}
@@ -0,0 +1,72 @@
+package Domain;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/*
+ * Books ordered by a sort key, then by ID. An entry is one long holding the key
+ * in the high bits and the ID in the low 31 (IDs are never negative), so the
+ * entries of a numeric order compare as plain longs. Text orders key by the ID
+ * of the case-folded text in the library's dictionary and compare the texts.
+ *
+ * Backed by a concurrent skip list, so the owning Library updates it under its
+ * lock while readers iterate without locking. Entries are not tied to a
+ * snapshot; readers check them against the book they name.
+ */
+class SortIndex {
+
+    private static final int ID_BITS = 31;
+    private static final long ID_MASK = (1L << ID_BITS) - 1;
+
+    private final ConcurrentSkipListSet<Long> entries;
+
+    SortIndex(Comparator<Long> order) {
+        this.entries = new ConcurrentSkipListSet<>(order);
+    }
+
+    /* Order of the entries of the given sort order */
+    static Comparator<Long> comparator(SortOrder order, StringDictionary strings) {
+        if (!order.isText()) {
+            return Comparator.naturalOrder();
+        }
+        return (a, b) -> {
+            int textA = (int) keyOf(a);
+            int textB = (int) keyOf(b);
+            if (textA == textB) {
+                return Integer.compare(idOf(a), idOf(b));
+            }
+            return strings.get(textA).compareTo(strings.get(textB));
+        };
+    }
+
+    /* The entry of a book, key must lie within SortOrder.MAX_KEY of zero */
+    static long entry(long key, int id) {
+        return key << ID_BITS | id;
+    }
+
+    static long keyOf(long entry) {
+        return entry >> ID_BITS;
+    }
+
+    static int idOf(long entry) {
+        return (int) (entry & ID_MASK);
+    }
+
+    void add(long key, int id) {
+        if (key != SortOrder.NONE) {
+            entries.add(entry(key, id));
+        }
+    }
+
+    void remove(long key, int id) {
+        if (key != SortOrder.NONE) {
+            entries.remove(entry(key, id));
+        }
+    }
+
+    /* Iterates from the given entry on, or from the start if it is null */
+    Iterator<Long> iteratorFrom(Long from) {
+        return from == null ? entries.iterator() : entries.tailSet(from, true).iterator();
+    }
+}
@@ -0,0 +1,58 @@
+package Domain;
+
+import java.sql.Date;
+
+/*
+ * Orders of a sorted listing. Each order maps a book to a long key whose order
+ * is the listing order; ties are broken by ID. Text orders key by the ID of the
+ * case-folded text in the library's dictionary, see SortIndex.
+ */
+public enum SortOrder {
+    TITLE,
+    AUTHOR,
+    YEAR,
+    /* Only books on loan have a due date, the others are not listed */
+    DUE;
+
+    /* Key of a book that does not appear in an order */
+    static final long NONE = Long.MIN_VALUE;
+
+    /* Keys are clamped to [-MAX_KEY, MAX_KEY] so that a key and an ID share a long */
+    static final long MAX_KEY = (1L << 32) - 1;
+
+    /* Returns the order for its lower-case name, or null if there is none */
+    public static SortOrder parse(String name) {
+        for (SortOrder order : values()) {
+            if (order.name().equalsIgnoreCase(name)) {
+                return order;
+            }
+        }
+        return null;
+    }
+
+    /* Whether keys are dictionary IDs of texts rather than numbers */
+    boolean isText() {
+        return this == TITLE || this == AUTHOR;
+    }
+
+    /*
+     * Sort key of the book, or NONE if the book does not appear in this order.
+     * Due dates are keyed to the second, finer than listings show them.
+     */
+    long keyOf(Book book, StringDictionary strings) {
+        switch (this) {
+            case TITLE:
+                return strings.intern(NGramIndex.normalize(book.getTitle()));
+            case AUTHOR:
+                return strings.intern(NGramIndex.normalize(book.getAuthor()));
+            case YEAR:
+                return book.getYearPublished();
+            default:
+                Date due = book.getLimitReturnDate();
+                if (due == null) {
+                    return NONE;
+                }
+                return Math.max(-MAX_KEY, Math.min(Math.floorDiv(due.getTime(), 1000L), MAX_KEY));
+        }
+    }
+}
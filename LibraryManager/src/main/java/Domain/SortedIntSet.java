@@ -0,0 +1,100 @@
+package Domain;
+
+import java.util.Arrays;
+
+/*
+ * Set of ints kept as a sorted array. Book IDs grow monotonically, so adding a
+ * new ID is an append and lookups are binary searches.
+ */
+public class SortedIntSet {
+
+    private int[] values;
+    private int size;
+
+    public SortedIntSet() {
+        this(4);
+    }
+
+    public SortedIntSet(int capacity) {
+        values = new int[Math.max(capacity, 1)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return values[index];
+    }
+
+    public boolean contains(int value) {
+        return indexOf(value) >= 0;
+    }
+
+    /* Returns the position of value, or (-(insertion point) - 1) if absent */
+    public int indexOf(int value) {
+        if (size > 0 && values[size - 1] < value) {
+            return -(size + 1);
+        }
+        return Arrays.binarySearch(values, 0, size, value);
+    }
+
+    /* Adds the value, returns false if it was already present */
+    public boolean add(int value) {
+        int index = indexOf(value);
+        if (index >= 0) {
+            return false;
+        }
+        index = -index - 1;
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size + (size >> 1) + 1);
+        }
+        System.arraycopy(values, index, values, index + 1, size - index);
+        values[index] = value;
+        size++;
+        return true;
+    }
+
+    /* Removes the value, returns false if it was not present */
+    public boolean remove(int value) {
+        int index = indexOf(value);
+        if (index < 0) {
+            return false;
+        }
+        System.arraycopy(values, index + 1, values, index, size - index - 1);
+        size--;
+        return true;
+    }
+
+    /* Removes every value of the ascending array in one pass, returns how many were present */
+    public int removeAll(int[] sorted, int count) {
+        int read = 0;
+        int write = 0;
+        int next = 0;
+        while (read < size) {
+            int value = values[read++];
+            while (next < count && sorted[next] < value) {
+                next++;
+            }
+            if (next < count && sorted[next] == value) {
+                next++;
+            } else {
+                values[write++] = value;
+            }
+        }
+        int removed = size - write;
+        size = write;
+        return removed;
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
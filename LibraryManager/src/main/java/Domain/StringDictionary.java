@@ -0,0 +1,58 @@
+package Domain;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Maps each distinct string to a dense int ID, starting at 0. Strings are kept
+ * once, so interned values can be compared by ID instead of character by
+ * character. IDs are never reused; the dictionary only grows, so each library
+ * owns one and it is released with the library.
+ *
+ * Lookups and reads are lock-free; only the first intern of a string locks.
+ */
+public final class StringDictionary {
+
+    public static final int ABSENT = -1;
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] values = new String[64];
+    private int size;
+
+    /* Returns the ID of the string, assigning the next one if it is new */
+    public int intern(String value) {
+        Integer id = ids.get(value);
+        return id != null ? id : add(value);
+    }
+
+    private synchronized int add(String value) {
+        Integer id = ids.get(value);
+        if (id != null) {
+            return id;
+        }
+        String[] table = values;
+        if (size == table.length) {
+            table = Arrays.copyOf(table, table.length * 2);
+        }
+        table[size] = value;
+        values = table;
+        // Publishing the ID after the value makes it readable through get()
+        ids.put(value, size);
+        return size++;
+    }
+
+    /* Returns the ID of the string, or ABSENT without adding it */
+    public int find(String value) {
+        Integer id = ids.get(value);
+        return id != null ? id : ABSENT;
+    }
+
+    /* Returns the canonical string of an ID handed out by this dictionary */
+    public String get(int id) {
+        return values[id];
+    }
+
+    public int size() {
+        return ids.size();
+    }
+}
@@ -0,0 +1,53 @@
+package Domain;
+
+import java.util.Arrays;
+
+/*
+ * Loan operations a session buffers between begin and commit, in order. Nothing
+ * is applied until Library.commitTransaction validates the whole transaction
+ * and applies all of it or none.
+ */
+public class Transaction {
+
+    private String[] operations = new String[8];
+    private int[] ids = new int[8];
+    private int size;
+
+    public void borrow(int... ids) {
+        add(Library.BORROW, ids);
+    }
+
+    public void returnBooks(int... ids) {
+        add(Library.RETURN, ids);
+    }
+
+    public void extend(int... ids) {
+        add(Library.EXTEND, ids);
+    }
+
+    private void add(String operation, int[] added) {
+        if (size + added.length > ids.length) {
+            int capacity = Math.max(size + added.length, ids.length * 2);
+            operations = Arrays.copyOf(operations, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+        }
+        for (int id : added) {
+            operations[size] = operation;
+            ids[size++] = id;
+        }
+    }
+
+    /* Number of buffered operations, one per book ID */
+    public int size() {
+        return size;
+    }
+
+    /* "borrow", "return" or "extend" */
+    public String getOperation(int index) {
+        return operations[index];
+    }
+
+    public int getId(int index) {
+        return ids[index];
+    }
+}
@@ -2,16 +2,34 @@ package Domain;
 
 public class User {
 
+    /* User ID of a user created outside the registry of a library */
+    public static final int UNREGISTERED = -1;
+
     protected String username;
+    protected int userId;
 
     public User(String username) {
+        this(username, UNREGISTERED);
+    }
+
+    /* A registered user, see UserRegistry */
+    User(String username, int userId) {
         this.username = username;
+        this.userId = userId;
     }
 
     public String getUsername() {
         return username;
     }
 
+    /*
+     * ID of the username in the string dictionary of the library that registered
+     * this user, equal IDs mean equal names; UNREGISTERED if no library did
+     */
+    public int getUserId() {
+        return userId;
+    }
+
     /* Is normaly set to false can only be overridden by admin subclass */
     public boolean isAdmin() {
         return false;
@@ -0,0 +1,78 @@
+package Domain;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Canonical users of one library by numeric ID. A user's ID is the ID of its
+ * name in the library's string dictionary, so the same name always maps to the
+ * same instance and ownership checks compare ints.
+ */
+public final class UserRegistry {
+
+    private static final String ADMIN_NAME = "admin";
+
+    private final StringDictionary names;
+    private final ConcurrentHashMap<Integer, User> users = new ConcurrentHashMap<>();
+
+    public UserRegistry(StringDictionary names) {
+        this.names = names;
+    }
+
+    /* Returns true if the name is non-empty and only contains ASCII letters, without allocating */
+    public static boolean isValidName(String name) {
+        if (name == null || name.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if ((c < 'a' || c > 'z') && (c < 'A' || c > 'Z')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* Returns the user of the name, creating it (an Administrator for "admin") on first use */
+    public User login(String name) {
+        return canonical(name, ADMIN_NAME.equals(name));
+    }
+
+    /*
+     * Returns the registered user with the same name. A user created outside the
+     * registry is replaced by a registered one of the same kind.
+     */
+    public User register(User user) {
+        User registered = users.get(user.getUserId());
+        if (registered == user) {
+            return user;
+        }
+        return canonical(user.getUsername(), user.isAdmin());
+    }
+
+    /* Returns the registered user of the name, or null without registering it */
+    public User find(String name) {
+        int id = names.find(name);
+        return id == StringDictionary.ABSENT ? null : users.get(id);
+    }
+
+    private User canonical(String name, boolean admin) {
+        int id = names.intern(name);
+        User user = users.get(id);
+        if (user != null) {
+            return user;
+        }
+        String canonicalName = names.get(id);
+        User created = admin ? new Administrator(canonicalName, id) : new User(canonicalName, id);
+        User existing = users.putIfAbsent(id, created);
+        return existing != null ? existing : created;
+    }
+
+    /* Returns the user with the given ID, or null if none was registered */
+    public User get(int userId) {
+        return userId == Book.NO_BORROWER ? null : users.get(userId);
+    }
+
+    public int size() {
+        return users.size();
+    }
+}
@@ -1,5 +1,6 @@
 import Domain.Library;
 import Mapper.CommandMapper;
+import Metrics.CommandMetrics;
 
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
@@ -17,12 +18,22 @@ public class LibraryManagerUI extends JFrame {
     private final JTextArea outputArea;
     private final JLabel statusLabel;
 
+    // Shared across runs so the JMX view accumulates; null unless -Dlibrary.metrics=true
+    private final CommandMetrics metrics;
+
     public LibraryManagerUI() {
         super("Library Manager");
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setSize(900, 600);
         setLocationRelativeTo(null); // center on screen
 
+        if (Boolean.getBoolean("library.metrics")) {
+            metrics = new CommandMetrics();
+            metrics.register();
+        } else {
+            metrics = null;
+        }
+
         // ===== Root content panel with padding =====
         JPanel content = new JPanel(new BorderLayout(10, 10));
         content.setBorder(new EmptyBorder(12, 12, 12, 12));
@@ -143,7 +154,7 @@ public class LibraryManagerUI extends JFrame {
                 BufferedReader reader = new BufferedReader(
                         new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
 
-            CommandMapper mapper = new CommandMapper(library, ps);
+            CommandMapper mapper = new CommandMapper(library, ps, metrics);
             String line;
             while ((line = reader.readLine()) != null) {
                 mapper.processLine(line);
@@ -2,26 +2,102 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+import Domain.CommitLog;
 import Domain.Library;
+import Domain.LibrarySweeper;
 import Mapper.CommandMapper;
+import Metrics.CommandMetrics;
+import Runner.BatchRunner;
+import Runner.ParallelScriptRunner;
+import Runner.ScriptResult;
 
 public class Main {
     public static void main(String[] args) {
+        // Command metrics are opt-in: -Dlibrary.metrics=true
+        CommandMetrics metrics = null;
+        if (Boolean.getBoolean("library.metrics")) {
+            metrics = new CommandMetrics();
+            metrics.register();
+        }
+
+        // Batch mode: Main [SCRIPT_DIR] [OUTPUT_DIR]
+        if (args.length > 0) {
+            runBatch(args, metrics);
+        } else {
+            runBundledScript(metrics);
+        }
+
+        if (metrics != null) {
+            System.err.print(metrics.dump());
+        }
+    }
+
+    private static void runBundledScript(CommandMetrics metrics) {
         Library library = new Library();
-        CommandMapper commandMapper = new CommandMapper(library, System.out);
+        CommandMapper commandMapper = new CommandMapper(library, System.out, metrics);
 
-        try (BufferedReader reader = new BufferedReader(
+        // Committed transactions are journaled to a file: -Dlibrary.journal=PATH
+        String journal = System.getProperty("library.journal");
+        // Overdue loans and expired holds are swept in the background: -Dlibrary.sweepSeconds=N
+        long sweepSeconds = Long.getLong("library.sweepSeconds", 0);
+        try (CommitLog log = journal == null ? null : new CommitLog(Paths.get(journal));
+                LibrarySweeper sweeper = sweepSeconds <= 0 ? null
+                        : new LibrarySweeper(library, sweepSeconds, TimeUnit.SECONDS);
+                BufferedReader reader = new BufferedReader(
                 new InputStreamReader(
                         Main.class.getClassLoader().getResourceAsStream("library_manager.txt"),
                         StandardCharsets.UTF_8))) {
+            library.setCommitLog(log);
+
+            // Independent lines on several cores: -Dlibrary.parallel=true
+            if (Boolean.getBoolean("library.parallel")) {
+                ParallelScriptRunner runner = new ParallelScriptRunner(
+                        Runtime.getRuntime().availableProcessors(), metrics);
+                try {
+                    runner.run(library, reader, System.out);
+                } finally {
+                    runner.shutdown();
+                }
+                return;
+            }
 
             String line;
             while ((line = reader.readLine()) != null) {
                 commandMapper.processLine(line);
             }
         } catch (IOException e) {
-            System.err.println("Error reading library_manager.txt: " + e.getMessage());
+            System.err.println("Error running library_manager.txt: " + e.getMessage());
+        }
+    }
+
+    /* Runs every script of a directory in parallel and prints a summary */
+    private static void runBatch(String[] args, CommandMetrics metrics) {
+        Path scripts = Paths.get(args[0]);
+        Path outputs = args.length > 1 ? Paths.get(args[1]) : null;
+
+        BatchRunner runner = new BatchRunner(Runtime.getRuntime().availableProcessors(), metrics);
+        try {
+            long start = System.nanoTime();
+            List<ScriptResult> results = runner.runDirectory(scripts);
+            long wall = System.nanoTime() - start;
+
+            if (outputs != null) {
+                Files.createDirectories(outputs);
+                for (ScriptResult r : results) {
+                    Files.writeString(outputs.resolve(r.getName() + ".out"), r.getOutput(), StandardCharsets.UTF_8);
+                }
+            }
+            System.out.print(BatchRunner.summarize(results, wall));
+        } catch (IOException e) {
+            System.err.println("Error running scripts in " + scripts + ": " + e.getMessage());
+        } finally {
+            runner.shutdown();
         }
     }
 }
@@ -2,23 +2,66 @@ package Mapper;
 
 import Domain.Library;
 import Domain.User;
-import Domain.Administrator;
 import Domain.Book;
-
+import Domain.BookPage;
+import Domain.CatalogueStats;
+import Domain.Loan;
+import Domain.LoanEvent;
+import Domain.LoanResult;
+import Domain.MatchMode;
+import Domain.SearchCacheStats;
+import Domain.SearchQuery;
+import Domain.SortOrder;
+import Domain.Transaction;
+import Domain.UserRegistry;
+import Metrics.CommandEvent;
+import Metrics.CommandMetrics;
+
+import java.io.IOException;
 import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
 import java.sql.Date;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Predicate;
 
 public class CommandMapper {
 
+    // Flag of the loan commands: apply all IDs or none
+    private static final String ATOMIC = "-atomic";
+    // Flag of borrow: take any available copy of an ISBN
+    private static final String ISBN = "-i";
+    // Option of list, check and search: stream results in title, author, year or due order
+    private static final String SORT = "-sort";
+    // Option of stats: show the search cache counters
+    private static final String CACHE = "-cache";
+
     private final Library library;
     private final PrintStream out;
+    // Whether stored UTF-8 catalogue rows can be copied to out as they are
+    private final boolean utf8Out;
+    private final CommandMetrics metrics;
+
+    // Loan operations buffered since begin, null outside a transaction
+    private Transaction transaction;
+
+    // Outcome of the command currently being processed, read by the metrics
+    private String failure;
+    private int rows;
 
     public CommandMapper(Library library, PrintStream out) {
+        this(library, out, null);
+    }
+
+    public CommandMapper(Library library, PrintStream out, CommandMetrics metrics) {
         this.library = library;
         this.out = out;
+        this.utf8Out = StandardCharsets.UTF_8.equals(out.charset());
+        this.metrics = metrics;
     }
 
     /*
@@ -26,6 +69,8 @@ public class CommandMapper {
      * corresponding command
      */
     public void processLine(String line) {
+        failure = null;
+        rows = 0;
         if (line == null)
             return;
 
@@ -38,9 +83,40 @@ public class CommandMapper {
         String[] parts = line.split("\\s+");
         String command = parts[0];
 
+        CommandEvent event = new CommandEvent();
+        event.begin();
+        long start = metrics != null ? System.nanoTime() : 0L;
+
+        dispatch(command, parts);
+
+        if (metrics != null) {
+            metrics.record(metricName(command), System.nanoTime() - start, failure, rows);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.command = metricName(command);
+            event.argumentCount = parts.length - 1;
+            event.resultSize = rows;
+            event.error = failure == null ? "" : failure;
+            event.commit();
+        }
+    }
+
+    /* Error message printed by the last processed command, or null if it succeeded */
+    public String getLastError() {
+        return failure;
+    }
+
+    private void dispatch(String command, String[] parts) {
         // Global rule: if not logged in, only 'log' is allowed
         if (!"log".equals(command) && !library.hasLoggedInUser()) {
-            out.println("You must log in with: log [USERNAME]");
+            fail("You must log in with: log [USERNAME]");
+            return;
+        }
+
+        if (transaction != null && ("add".equals(command) || "remove".equals(command) || "hold".equals(command)
+                || "import".equals(command))) {
+            fail("Command not available in a transaction: " + command);
             return;
         }
 
@@ -75,11 +151,64 @@ public class CommandMapper {
             case "search":
                 handleSearch(parts);
                 break;
+            case "hold":
+                handleHold(parts);
+                break;
+            case "stats":
+                handleStats(parts);
+                break;
+            case "history":
+                handleHistory(parts);
+                break;
+            case "import":
+                handleImport(parts);
+                break;
+            case "begin":
+                handleBegin();
+                break;
+            case "commit":
+                handleCommit();
+                break;
+            case "abort":
+                handleAbort();
+                break;
             default:
-                out.println("Unknown command: " + command);
+                fail("Unknown command: " + command);
         }
     }
 
+    /* Unknown commands share one metric so arbitrary input cannot create new MBeans */
+    private static String metricName(String command) {
+        switch (command) {
+            case "log":
+            case "logout":
+            case "add":
+            case "list":
+            case "borrow":
+            case "return":
+            case "extend":
+            case "remove":
+            case "check":
+            case "search":
+            case "hold":
+            case "stats":
+            case "history":
+            case "import":
+            case "begin":
+            case "commit":
+            case "abort":
+                return command;
+            default:
+                return "unknown";
+        }
+    }
+
+    /* Prints an error message and marks the current command as failed */
+    private void fail(String message) {
+        out.println(message);
+        failure = message;
+    }
+
     // -------- Date helper class --------
 
     private String formatDate(Date date) {
@@ -95,30 +224,25 @@ public class CommandMapper {
     private void handleLog(String[] parts) {
         // Missing username
         if (parts.length < 2) {
-            out.println("Invalid username format");
+            fail("Invalid username format");
             return;
         }
 
         // User already logged in check
         if (library.hasLoggedInUser()) {
-            out.println("User already logged in");
+            fail("User already logged in");
             return;
         }
 
         String username = parts[1];
 
         // Invalid characters (only letters are allowed here)
-        if (!username.matches("[A-Za-z]+")) {
-            out.println("Invalid username format");
+        if (!UserRegistry.isValidName(username)) {
+            fail("Invalid username format");
             return;
         }
 
-        User user;
-        if ("admin".equals(username)) {
-            user = new Administrator(username);
-        } else {
-            user = new User(username);
-        }
+        User user = library.getUsers().login(username);
 
         // User successfully logged in
         library.setCurrentUser(user);
@@ -127,6 +251,10 @@ public class CommandMapper {
 
     private void handleLogout() {
         // If this is reached, a user is logged in (global check in processLine)
+        if (transaction != null) {
+            transaction = null;
+            out.println("Transaction aborted.");
+        }
         library.setCurrentUser(null);
         out.println("You are logged out.");
     }
@@ -136,7 +264,7 @@ public class CommandMapper {
     private void handleAdd(String[] parts) {
         // Only admin can add books
         if (!library.isCurrentUserAdmin()) {
-            out.println("User not authorized");
+            fail("User not authorized");
             return;
         }
 
@@ -179,7 +307,7 @@ public class CommandMapper {
         }
 
         if (title == null || author == null || yearStr == null || isbnStr == null) {
-            out.println("Missing required option: -t, -a, -d, or -i");
+            fail("Missing required option: -t, -a, -d, or -i");
             return;
         }
 
@@ -187,7 +315,7 @@ public class CommandMapper {
         try {
             year = Integer.parseInt(yearStr);
         } catch (NumberFormatException e) {
-            out.println("Invalid year format");
+            fail("Invalid year format");
             return;
         }
 
@@ -195,7 +323,7 @@ public class CommandMapper {
         try {
             isbn = Integer.parseInt(isbnStr);
         } catch (NumberFormatException e) {
-            out.println("Invalid ISBN format");
+            fail("Invalid ISBN format");
             return;
         }
 
@@ -204,11 +332,11 @@ public class CommandMapper {
             try {
                 copies = Integer.parseInt(copiesStr);
                 if (copies <= 0) {
-                    out.println("Invalid copies number");
+                    fail("Invalid copies number");
                     return;
                 }
             } catch (NumberFormatException e) {
-                out.println("Invalid copies number");
+                fail("Invalid copies number");
                 return;
             }
         }
@@ -219,25 +347,32 @@ public class CommandMapper {
          */
 
         if (copies == 1) {
-            Book book = library.addSingleBook(isbn, title, author, year);
+            Book book;
+            try {
+                book = library.addSingleBook(isbn, title, author, year);
+            } catch (IllegalStateException e) {
+                fail(e.getMessage());
+                return;
+            }
             out.println("The book is registered as " + book.getID() + ".");
         } else {
-            StringBuilder ids = new StringBuilder();
-            for (int c = 0; c < copies; c++) {
-                Book book = library.addSingleBook(isbn, title, author, year);
-                if (c > 0) {
-                    ids.append(" ");
-                }
-                ids.append(book.getID());
+            // The copies get consecutive IDs, so the confirmation is a single range
+            int first;
+            try {
+                first = library.addCopies(isbn, title, author, year, copies);
+            } catch (IllegalStateException e) {
+                fail(e.getMessage());
+                return;
             }
-            out.println("The books are registered as " + ids.toString() + ".");
+            IdRanges.Builder ids = new IdRanges.Builder().appendRange(first, first + copies - 1);
+            out.println("The books are registered as " + ids + ".");
         }
     }
 
     private void handleRemove(String[] parts) {
         // Only admin can remove books
         if (!library.isCurrentUserAdmin()) {
-            out.println("User not authorized");
+            fail("User not authorized");
             return;
         }
 
@@ -246,41 +381,50 @@ public class CommandMapper {
             return;
         }
 
-        List<Integer> removed = new ArrayList<>();
-        List<Integer> notFound = new ArrayList<>();
+        IdRanges.Builder removed = new IdRanges.Builder();
+        IdRanges.Builder notFound = new IdRanges.Builder();
 
         for (int i = 1; i < parts.length; i++) {
             try {
+                if (IdRanges.isRange(parts[i])) {
+                    int[] range = IdRanges.parseRange(parts[i]);
+                    removeRange(range[0], range[1], removed, notFound);
+                    continue;
+                }
                 int id = Integer.parseInt(parts[i]);
                 boolean ok = library.removeBook(id);
                 if (ok) {
-                    removed.add(id);
+                    removed.append(id);
                 } else {
-                    notFound.add(id);
+                    notFound.append(id);
                 }
             } catch (NumberFormatException e) {
-                out.println("Invalid ID format in remove command: " + parts[i]);
+                fail("Invalid ID format in remove command: " + parts[i]);
             }
         }
 
         if (!removed.isEmpty()) {
-            StringBuilder sb = new StringBuilder();
-            for (int i = 0; i < removed.size(); i++) {
-                if (i > 0)
-                    sb.append(" ");
-                sb.append(removed.get(i));
-            }
-            out.println("The following books were removed: " + sb.toString() + ".");
+            out.println("The following books were removed: " + removed + ".");
         }
 
         if (!notFound.isEmpty()) {
-            StringBuilder sb = new StringBuilder();
-            for (int i = 0; i < notFound.size(); i++) {
-                if (i > 0)
-                    sb.append(" ");
-                sb.append(notFound.get(i));
+            fail("The following IDs do not exist: " + notFound + ".");
+        }
+    }
+
+    /* Removes a whole ID range at once and records the gaps as not found */
+    private void removeRange(int first, int last, IdRanges.Builder removed, IdRanges.Builder notFound) {
+        int[] ids = library.removeRange(first, last);
+        long expected = first;
+        for (int id : ids) {
+            if (id > expected) {
+                notFound.appendRange((int) expected, id - 1);
             }
-            out.println("The following IDs do not exist: " + sb.toString() + ".");
+            removed.append(id);
+            expected = (long) id + 1;
+        }
+        if (expected <= last) {
+            notFound.appendRange((int) expected, last);
         }
     }
 
@@ -288,164 +432,584 @@ public class CommandMapper {
 
     private void handleList(String[] parts) {
         String option = "-all"; // Default option
+        Paging paging = new Paging();
 
-        if (parts.length >= 2) {
-            option = parts[1];
+        for (int i = 1; i < parts.length; i++) {
+            if (Paging.isOption(parts[i]) || SORT.equals(parts[i])) {
+                if (!readPaging(parts, i++, paging)) {
+                    return;
+                }
+            } else {
+                option = parts[i];
+            }
         }
 
-        List<Book> books = library.getAllBooks();
-        if (books.isEmpty()) {
+        if (library.getAllBooks().isEmpty()) {
             out.println("No books in library.");
             return;
         }
 
         boolean admin = library.isCurrentUserAdmin();
 
-        for (Book b : books) {
-            boolean available = b.isAvailable();
-
-            if ("-av".equals(option) || "-available".equals(option)) {
-                if (!available) {
-                    continue;
-                }
-            } else if ("-br".equals(option) || "-borrowed".equals(option)) {
-                if (available) {
-                    continue;
-                }
-            } // "-all" or unknown option: show all
+        Predicate<Book> filter = null; // "-all" or unknown option: show all
+        if ("-av".equals(option) || "-available".equals(option)) {
+            filter = Book::isAvailable;
+        } else if ("-br".equals(option) || "-borrowed".equals(option)) {
+            filter = b -> !b.isAvailable();
+        }
+        BookPage page = findPage(paging, filter);
+        if (page == null) {
+            return;
+        }
 
-            if (!admin) {
-                // Regular user: ID, title, author, year
-                out.println(
-                        b.getID() + "\t" +
-                                b.getTitle() + "\t" +
-                                b.getAuthor() + "\t" +
-                                b.getYearPublished());
+        for (Book b : page.getBooks()) {
+            rows++;
+            // Regular users see ID, title, author, year; admins additionally
+            // borrower + limit date of borrowed books
+            // The loan is read once: the book may be returned while the row prints
+            Loan loan = admin ? b.getLoan() : null;
+            printCatalogueRow(b);
+            if (loan == null) {
+                out.println();
             } else {
-                // Admin: for borrowed books additionally borrower + limit date
-                if (available) {
-                    out.println(
-                            b.getID() + "\t" +
-                                    b.getTitle() + "\t" +
-                                    b.getAuthor() + "\t" +
-                                    b.getYearPublished());
-                } else {
-                    out.println(
-                            b.getID() + "\t" +
-                                    b.getTitle() + "\t" +
-                                    b.getAuthor() + "\t" +
-                                    b.getYearPublished() + "\t" +
-                                    b.getBorrower().getUsername() + "\t" +
-                                    formatDate(b.getLimitReturnDate()));
-                }
+                out.println("\t" + loan.getBorrower().getUsername() + "\t" + formatDate(loan.getLimitReturnDate()));
             }
         }
+        printNextCursor(page);
     }
 
-    // -------- borrow / return / extend --------
+    /* Prints the fixed part of a listing row, copying its stored bytes when out is UTF-8 */
+    private void printCatalogueRow(Book b) {
+        if (utf8Out) {
+            b.writeCatalogueRow(out);
+        } else {
+            out.print(b.getCatalogueRow());
+        }
+    }
 
-    private void handleBorrow(String[] parts) {
-        if (parts.length < 2) {
-            out.println("Usage: borrow [ID]");
-            return;
+    // -------- paging --------
+
+    /* -limit, -offset, -cursor and -sort of list, check and search */
+    private static final class Paging {
+        String cursor = null;
+        int offset = 0;
+        int limit = Integer.MAX_VALUE;
+        SortOrder sort = null;
+
+        static boolean isOption(String option) {
+            return "-limit".equals(option) || "-offset".equals(option) || "-cursor".equals(option);
+        }
+    }
+
+    /* Reads the paging option at parts[i] and its value; prints the error and returns false if invalid */
+    private boolean readPaging(String[] parts, int i, Paging paging) {
+        if (i + 1 >= parts.length) {
+            fail("Missing value for option " + parts[i]);
+            return false;
+        }
+        String value = parts[i + 1];
+        if ("-cursor".equals(parts[i])) {
+            if (!BookPage.isCursor(value)) {
+                fail("Invalid cursor: " + value);
+                return false;
+            }
+            paging.cursor = value;
+            return true;
+        }
+        if (SORT.equals(parts[i])) {
+            paging.sort = SortOrder.parse(value);
+            if (paging.sort == null) {
+                fail("Invalid sort order: " + value);
+                return false;
+            }
+            return true;
         }
 
+        int number;
         try {
-            int id = Integer.parseInt(parts[1]);
-            Book book = library.getBookById(id);
-            if (book == null) {
-                out.println("No book found with ID " + id + ".");
-                return;
+            number = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            number = -1;
+        }
+        boolean isLimit = "-limit".equals(parts[i]);
+        if (number < (isLimit ? 1 : 0)) {
+            fail("Invalid " + parts[i].substring(1) + ": " + value);
+            return false;
+        }
+        if (isLimit) {
+            paging.limit = number;
+        } else {
+            paging.offset = number;
+        }
+        return true;
+    }
+
+    /* Page of the books accepted by the filter; prints the error and returns null if the cursor does not fit */
+    private BookPage findPage(Paging paging, Predicate<Book> filter) {
+        try {
+            if (paging.sort != null) {
+                return library.findSortedPage(paging.sort, filter, paging.cursor, paging.offset, paging.limit);
             }
-            if (!book.isAvailable()) {
-                out.println("Book " + id + " is already borrowed.");
-                return;
+            int fromId = paging.cursor == null ? 0 : BookPage.decodeCursor(paging.cursor);
+            return library.findPage(filter, fromId, paging.offset, paging.limit);
+        } catch (IllegalArgumentException e) {
+            fail(e.getMessage());
+            return null;
+        }
+    }
+
+    /* Page of the overdue loans accepted by the filter, see findPage */
+    private BookPage overduePage(Paging paging, Predicate<Book> filter) {
+        try {
+            if (paging.sort != null) {
+                return library.findOverdueSortedPage(paging.sort, filter, paging.cursor, paging.offset, paging.limit);
+            }
+            int fromId = paging.cursor == null ? 0 : BookPage.decodeCursor(paging.cursor);
+            return library.findOverduePage(filter, fromId, paging.offset, paging.limit);
+        } catch (IllegalArgumentException e) {
+            fail(e.getMessage());
+            return null;
+        }
+    }
+
+    /* Page of the search results, see findPage */
+    private BookPage searchPage(Paging paging, SearchQuery query) {
+        try {
+            if (paging.sort != null) {
+                return library.searchSortedPage(paging.sort, query, paging.cursor, paging.offset, paging.limit);
             }
+            int fromId = paging.cursor == null ? 0 : BookPage.decodeCursor(paging.cursor);
+            return library.searchPage(query, fromId, paging.offset, paging.limit);
+        } catch (IllegalArgumentException e) {
+            fail(e.getMessage());
+            return null;
+        }
+    }
+
+    private void printNextCursor(BookPage page) {
+        if (page.hasNext()) {
+            out.println("Next cursor: " + page.getNextCursor());
+        }
+    }
+
+    // -------- borrow / return / extend --------
 
-            library.borrowBook(id);
-            out.println("Book " + id + " borrowed by "
-                    + library.getCurrentUser().getUsername()
-                    + " until " + formatDate(book.getLimitReturnDate()) + ".");
+    private void handleBorrow(String[] parts) {
+        if (parts.length >= 2 && ISBN.equals(parts[1])) {
+            handleBorrowByIsbn(parts);
+            return;
+        }
+        int[] ids = parseLoanIds(parts, "borrow");
+        if (ids == null) {
+            return;
+        }
+        if (transaction != null) {
+            transaction.borrow(ids);
+            reportQueued("borrow", ids);
+            return;
+        }
+        LoanResult[] results = library.borrowBooks(ids, hasFlag(parts, ATOMIC));
+        reportLoans("borrow", ids, results);
+    }
 
+    /* borrow -i ISBN: borrows any available copy of the ISBN */
+    private void handleBorrowByIsbn(String[] parts) {
+        if (transaction != null) {
+            fail("Command not available in a transaction: borrow -i");
+            return;
+        }
+        if (parts.length != 3) {
+            fail("Usage: borrow -i [ISBN]");
+            return;
+        }
+        int isbn;
+        try {
+            isbn = Integer.parseInt(parts[2]);
         } catch (NumberFormatException e) {
-            out.println("Invalid ID format in borrow command.");
+            fail("Invalid ISBN format in borrow command.");
+            return;
+        }
+        Book book = library.borrowByIsbn(isbn);
+        if (book == null) {
+            fail("No copy of ISBN " + isbn + " is available.");
+            return;
         }
+        out.println(loanMessage("borrow", book.getID(), LoanResult.OK));
     }
 
     private void handleReturn(String[] parts) {
-        if (parts.length < 2) {
-            out.println("Usage: return [ID]");
+        int[] ids = parseLoanIds(parts, "return");
+        if (ids == null) {
+            return;
+        }
+        if (transaction != null) {
+            transaction.returnBooks(ids);
+            reportQueued("return", ids);
             return;
         }
+        LoanResult[] results = library.returnBooks(ids, hasFlag(parts, ATOMIC));
+        reportLoans("return", ids, results);
+    }
+
+    private void handleExtend(String[] parts) {
+        int[] ids = parseLoanIds(parts, "extend");
+        if (ids == null) {
+            return;
+        }
+        if (transaction != null) {
+            transaction.extend(ids);
+            reportQueued("extend", ids);
+            return;
+        }
+        LoanResult[] results = library.extendLoans(ids, hasFlag(parts, ATOMIC));
+        reportLoans("extend", ids, results);
+    }
+
+    /*
+     * Parses the IDs and ID ranges of a loan command, skipping the -atomic flag.
+     * Prints the error and returns null when the arguments are invalid.
+     */
+    private int[] parseLoanIds(String[] parts, String command) {
+        List<String> args = new ArrayList<>();
+        for (int i = 1; i < parts.length; i++) {
+            if (!ATOMIC.equals(parts[i])) {
+                args.add(parts[i]);
+            }
+        }
+        if (args.isEmpty()) {
+            fail("Usage: " + command + " [ID]");
+            return null;
+        }
 
         try {
-            int id = Integer.parseInt(parts[1]);
-            Book book = library.getBookById(id);
-            if (book == null) {
-                out.println("No book found with ID " + id + ".");
-                return;
+            return IdRanges.expand(args.toArray(new String[0]), 0);
+        } catch (NumberFormatException e) {
+            fail("Invalid ID format in " + command + " command.");
+        } catch (IllegalArgumentException e) {
+            fail("Too many IDs in " + command + " command (maximum " + IdRanges.MAX_IDS + ").");
+        }
+        return null;
+    }
+
+    private static boolean hasFlag(String[] parts, String flag) {
+        for (int i = 1; i < parts.length; i++) {
+            if (flag.equals(parts[i])) {
+                return true;
             }
-            if (book.isAvailable()) {
-                out.println("Book " + id + " is not currently borrowed.");
-                return;
+        }
+        return false;
+    }
+
+    /*
+     * Prints one line per ID. A single ID keeps the classic messages, a batch
+     * prefixes messages without an ID and is written with a single print.
+     */
+    private void reportLoans(String command, int[] ids, LoanResult[] results) {
+        if (ids.length == 1) {
+            String message = loanMessage(command, ids[0], results[0]);
+            if (results[0] == LoanResult.OK) {
+                out.println(message);
+            } else {
+                fail(message);
             }
-            User borrower = book.getBorrower();
-            if (!borrower.getUsername().equals(library.getCurrentUser().getUsername())) {
-                out.println("Book " + id + " is borrowed by another user.");
-                return;
+            return;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        String firstError = null;
+        boolean aborted = false;
+        for (int i = 0; i < ids.length; i++) {
+            String message = loanMessage(command, ids[i], results[i]);
+            if ("extend".equals(command) && results[i] != LoanResult.ABORTED) {
+                // The extend messages do not name the book
+                message = "Book " + ids[i] + ": " + message;
+            }
+            if (results[i] != LoanResult.OK && firstError == null) {
+                firstError = message;
             }
+            aborted |= results[i] == LoanResult.ABORTED;
+            sb.append(message).append(System.lineSeparator());
+        }
+        if (aborted) {
+            sb.append("Batch aborted: no books were changed.").append(System.lineSeparator());
+        }
+        out.print(sb);
+        if (firstError != null) {
+            failure = firstError;
+        }
+    }
+
+    private String loanMessage(String command, int id, LoanResult result) {
+        switch (result) {
+            case OK:
+                Book book = library.getBookById(id);
+                if ("borrow".equals(command)) {
+                    return "Book " + id + " borrowed by "
+                            + library.getCurrentUser().getUsername()
+                            + " until " + formatDate(book.getLimitReturnDate()) + ".";
+                }
+                if ("return".equals(command)) {
+                    User holder = library.getHolder(id);
+                    if (holder != null) {
+                        return "Book " + id + " returned." + System.lineSeparator()
+                                + "Book " + id + " is held for " + holder.getUsername()
+                                + " until " + formatDate(library.getHoldDeadline(id)) + ".";
+                    }
+                    return "Book " + id + " returned.";
+                }
+                return "Loan extended. New limit date: " + formatDate(book.getLimitReturnDate());
+            case NOT_FOUND:
+                return "extend".equals(command) ? "Book not found" : "No book found with ID " + id + ".";
+            case ALREADY_BORROWED:
+                return "Book " + id + " is already borrowed.";
+            case ON_HOLD:
+                return "Book " + id + " is held for another user.";
+            case NOT_BORROWED:
+                return "extend".equals(command) ? "Book not found" : "Book " + id + " is not currently borrowed.";
+            case NOT_BORROWER:
+                return "extend".equals(command)
+                        ? "Unauthorized: You are not the borrower"
+                        : "Book " + id + " is borrowed by another user.";
+            case LIMIT_REACHED:
+                return "Extension limit reached";
+            default:
+                return "Book " + id + " skipped: batch aborted.";
+        }
+    }
 
-            library.returnBook(id);
-            out.println("Book " + id + " returned.");
+    // -------- import --------
 
-        } catch (NumberFormatException e) {
-            out.println("Invalid ID format in return command.");
+    /* import PATH: adds every row of a CSV catalogue, see CsvImporter for the format */
+    private void handleImport(String[] parts) {
+        if (!library.isCurrentUserAdmin()) {
+            fail("User not authorized");
+            return;
+        }
+        if (parts.length != 2) {
+            fail("Usage: import PATH");
+            return;
+        }
+
+        CsvImporter.Result result;
+        try {
+            result = new CsvImporter().importFile(library, Path.of(parts[1]));
+        } catch (IOException | InvalidPathException e) {
+            fail("Cannot read file: " + parts[1]);
+            return;
+        } catch (IllegalStateException e) {
+            // Imports are all or nothing, also on a partitioned library
+            fail("Import failed, no books were imported: " + e.getMessage());
+            return;
+        }
+
+        // A partitioned library spreads the IDs, so only the counts are printed
+        out.println("Imported " + result.getBooks() + " books from " + result.getRows() + " rows.");
+        // Skipped rows are reported together once the valid ones are in
+        for (String error : result.getErrors()) {
+            out.println(error);
         }
+        if (!result.getErrors().isEmpty()) {
+            failure = result.getErrors().size() + " rows skipped";
+        }
+        rows = result.getRows();
     }
 
-    private void handleExtend(String[] parts) {
-        if (parts.length < 2) {
-            out.println("Usage: extend [ID]");
+    // -------- begin / commit / abort --------
+
+    /* begin: buffers the following borrow, return and extend lines until commit or abort */
+    private void handleBegin() {
+        if (transaction != null) {
+            fail("A transaction is already open.");
             return;
         }
+        transaction = new Transaction();
+        out.println("Transaction started.");
+    }
 
+    /* commit: applies every buffered loan operation, or none if any of them fails */
+    private void handleCommit() {
+        if (transaction == null) {
+            fail("No transaction is open.");
+            return;
+        }
+        Transaction committed = transaction;
+        transaction = null;
+        // Messages of applied operations are built as each is applied, as later
+        // operations on the same book change what an earlier message reports
+        String[] applied = new String[committed.size()];
+        LoanResult[] results;
         try {
-            int id = Integer.parseInt(parts[1]);
-            Book book = library.getBookById(id);
-            if (book == null) {
-                out.println("Book not found");
-                return;
+            results = library.commitTransaction(committed,
+                    i -> applied[i] = loanMessage(committed.getOperation(i), committed.getId(i), LoanResult.OK));
+        } catch (UncheckedIOException e) {
+            fail("Commit failed, no books were changed: " + e.getCause().getMessage());
+            return;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        String firstError = null;
+        for (int i = 0; i < committed.size(); i++) {
+            String command = committed.getOperation(i);
+            int id = committed.getId(i);
+            String message = applied[i] != null ? applied[i] : loanMessage(command, id, results[i]);
+            if ("extend".equals(command) && results[i] != LoanResult.ABORTED) {
+                message = "Book " + id + ": " + message;
             }
-            if (book.isAvailable()) {
-                out.println("Book not found");
+            // The failure is the operation that aborted the transaction, not one it skipped
+            if (results[i] != LoanResult.OK && results[i] != LoanResult.ABORTED && firstError == null) {
+                firstError = message;
+            }
+            sb.append(message).append(System.lineSeparator());
+            rows++;
+        }
+        sb.append(firstError == null ? "Transaction committed." : "Transaction aborted: no books were changed.")
+                .append(System.lineSeparator());
+        out.print(sb);
+        if (firstError != null) {
+            failure = firstError;
+        }
+    }
+
+    private void handleAbort() {
+        if (transaction == null) {
+            fail("No transaction is open.");
+            return;
+        }
+        transaction = null;
+        out.println("Transaction aborted.");
+    }
+
+    private void reportQueued(String command, int[] ids) {
+        out.println("Queued " + command + " of " + ids.length + (ids.length == 1 ? " book." : " books."));
+    }
+
+    // -------- hold --------
+
+    /* hold ISBN: waits for the next returned copy of an ISBN whose copies are all out */
+    private void handleHold(String[] parts) {
+        if (parts.length != 2) {
+            fail("Usage: hold [ISBN]");
+            return;
+        }
+        int isbn;
+        try {
+            isbn = Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            fail("Invalid ISBN format in hold command.");
+            return;
+        }
+        switch (library.placeHold(isbn)) {
+            case PLACED:
+                out.println("Hold placed on ISBN " + isbn + ".");
+                break;
+            case NOT_FOUND:
+                fail("No book found with ISBN " + isbn + ".");
+                break;
+            case AVAILABLE:
+                fail("A copy of ISBN " + isbn + " is available.");
+                break;
+            default:
+                fail("You already have a hold on ISBN " + isbn + ".");
+        }
+    }
+
+    // -------- stats --------
+
+    /* stats: catalogue counters; stats -u NAME: books on loan to one user */
+    private void handleStats(String[] parts) {
+        if (parts.length == 1) {
+            CatalogueStats stats = library.getStats(library.getClock().millis());
+            out.println("Copies: " + stats.getCopies());
+            out.println("ISBNs: " + stats.getIsbns());
+            out.println("Borrowed: " + stats.getBorrowed());
+            out.println("Extended: " + stats.getExtended());
+            out.println("Overdue: " + stats.getOverdue());
+            rows++;
+            return;
+        }
+        if (parts.length == 2 && CACHE.equals(parts[1])) {
+            SearchCacheStats cache = library.getSearchCacheStats();
+            out.println("Search cache entries: " + cache.getEntries());
+            out.println("Search cache hits: " + cache.getHits());
+            out.println("Search cache misses: " + cache.getMisses());
+            out.println("Search cache evictions: " + cache.getEvictions());
+            rows++;
+            return;
+        }
+        if (parts.length != 3 || !"-u".equals(parts[1])) {
+            fail("Usage: stats [-u USERNAME | -cache]");
+            return;
+        }
+
+        String username = parts[2];
+        User current = library.getCurrentUser();
+        if (!current.isAdmin() && !username.equals(current.getUsername())) {
+            fail("Unauthorized: You can only view your own loans");
+            return;
+        }
+        User user = library.getUsers().find(username);
+        int loans = user == null ? 0 : library.getLoanCount(user.getUserId());
+        out.println("Loans of " + username + ": " + loans);
+        rows++;
+    }
+
+    // -------- history --------
+
+    /* history -u USERNAME or history -b ID: past borrows, extensions and returns */
+    private void handleHistory(String[] parts) {
+        if (parts.length != 3 || !("-u".equals(parts[1]) || "-b".equals(parts[1]))) {
+            fail("Usage: history -u [USERNAME] | -b [ID]");
+            return;
+        }
+        User current = library.getCurrentUser();
+        List<LoanEvent> events;
+        if ("-u".equals(parts[1])) {
+            if (!current.isAdmin() && !parts[2].equals(current.getUsername())) {
+                fail("Unauthorized: You can only view your own history");
                 return;
             }
-            if (!book.getBorrower().getUsername()
-                    .equals(library.getCurrentUser().getUsername())) {
-                out.println("Unauthorized: You are not the borrower");
+            User user = library.getUsers().find(parts[2]);
+            events = user == null ? new ArrayList<>() : library.getUserHistory(user.getUserId());
+        } else {
+            if (!current.isAdmin()) {
+                fail("User not authorized");
                 return;
             }
-            if (book.isExceeded()) {
-                out.println("Extension limit reached");
+            try {
+                events = library.getBookHistory(Integer.parseInt(parts[2]));
+            } catch (NumberFormatException e) {
+                fail("Invalid ID format in history command.");
                 return;
             }
+        }
 
-            library.extendLoan(id);
-            out.println("Loan extended. New limit date: "
-                    + formatDate(book.getLimitReturnDate()));
-
-        } catch (NumberFormatException e) {
-            out.println("Invalid ID format in extend command.");
+        if (events.isEmpty()) {
+            out.println("No loan history found.");
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (LoanEvent e : events) {
+            sb.append(formatDate(new Date(e.getTime()))).append('\t')
+                    .append(e.getOperation()).append('\t')
+                    .append(e.getBookId()).append('\t')
+                    .append(e.getUsername()).append(System.lineSeparator());
+            rows++;
         }
+        out.print(sb);
     }
 
     // -------- check --------
 
     private void handleCheck(String[] parts) {
         boolean onlyExceeded = false; // Default is -all
+        Paging paging = new Paging();
 
-        if (parts.length >= 2) {
-            if ("-b".equals(parts[1])) {
+        for (int i = 1; i < parts.length; i++) {
+            if (Paging.isOption(parts[i]) || SORT.equals(parts[i])) {
+                if (!readPaging(parts, i++, paging)) {
+                    return;
+                }
+            } else if (i == 1 && "-b".equals(parts[i])) {
                 onlyExceeded = true;
             }
         }
@@ -460,52 +1024,57 @@ public class CommandMapper {
         boolean admin = current.isAdmin();
         boolean anyPrinted = false;
 
-        for (Book b : books) {
+        Predicate<Book> filter = b -> {
             // Skip available books
-            if (b.isAvailable()) {
-                continue;
+            Loan loan = b.getLoan();
+            if (loan == null) {
+                return false;
             }
 
             // For normal users only show books borrowed by themselves
-            if (!admin && !b.getBorrower().getUsername().equals(current.getUsername())) {
-                continue;
-            }
+            return admin || loan.getBorrowerId() == current.getUserId();
+        };
+        // For -b, only books the due-date index found overdue are read
+        BookPage page = onlyExceeded ? overduePage(paging, filter) : findPage(paging, filter);
+        if (page == null) {
+            return;
+        }
 
-            // For -b, only show books whose limit date is in the past (overdue)
-            if (onlyExceeded) {
-                Date today = new Date(System.currentTimeMillis());
-                if (b.getLimitReturnDate() == null || !b.getLimitReturnDate().before(today)) {
-                    continue;
-                }
+        for (Book b : page.getBooks()) {
+            // Read the loan once; a book returned since the page was taken is skipped
+            Loan loan = b.getLoan();
+            if (loan == null) {
+                continue;
             }
-
             anyPrinted = true;
+            rows++;
             if (admin) {
                 out.println(
                         b.getID() + "\t" +
                                 b.getISBN() + "\t" +
                                 b.getTitle() + "\t" +
-                                b.getBorrower().getUsername() + "\t" +
-                                formatDate(b.getLimitReturnDate()));
+                                loan.getBorrower().getUsername() + "\t" +
+                                formatDate(loan.getLimitReturnDate()));
             } else {
                 out.println(
                         b.getID() + "\t" +
                                 b.getISBN() + "\t" +
                                 b.getTitle() + "\t" +
-                                formatDate(b.getLimitReturnDate()));
+                                formatDate(loan.getLimitReturnDate()));
             }
         }
 
         if (!anyPrinted) {
             out.println("No borrowed books found for this filter.");
         }
+        printNextCursor(page);
     }
 
     // -------- search --------
 
     private void handleSearch(String[] parts) {
         if (parts.length == 1) {
-            out.println("Usage: search [FILTERS]");
+            fail("Usage: search [FILTERS]");
             out.println("Filters:");
             out.println("  -t [TITLE]   or -title [TITLE]");
             out.println("  -a [AUTHOR]  or -author [AUTHOR]");
@@ -516,6 +1085,9 @@ public class CommandMapper {
         String titleFilter = null;
         String authorFilter = null;
         Integer yearFilter = null;
+        MatchMode mode = MatchMode.EXACT;
+        boolean ignoreCase = false;
+        Paging paging = new Paging();
 
         // Read options in pairs: -t value, -a value, -d value ...
         for (int i = 1; i < parts.length - 1; i += 2) {
@@ -536,31 +1108,55 @@ public class CommandMapper {
                     try {
                         yearFilter = Integer.parseInt(val);
                     } catch (NumberFormatException e) {
-                        out.println("Invalid year in search filter: " + val);
+                        fail("Invalid year in search filter: " + val);
+                        return;
+                    }
+                    break;
+                case "-m":
+                case "-match":
+                    // exact (default), prefix or substring
+                    mode = MatchMode.parse(val);
+                    if (mode == null) {
+                        fail("Invalid match mode in search filter: " + val);
+                        return;
+                    }
+                    break;
+                case "-c":
+                case "-case":
+                    // sensitive (default) or insensitive
+                    if ("insensitive".equals(val)) {
+                        ignoreCase = true;
+                    } else if ("sensitive".equals(val)) {
+                        ignoreCase = false;
+                    } else {
+                        fail("Invalid case option in search filter: " + val);
+                        return;
+                    }
+                    break;
+                case "-limit":
+                case "-offset":
+                case "-cursor":
+                case SORT:
+                    if (!readPaging(parts, i, paging)) {
                         return;
                     }
                     break;
                 default:
-                    out.println("Unknown search option: " + opt);
+                    fail("Unknown search option: " + opt);
                     return;
             }
         }
 
-        List<Book> books = library.getAllBooks();
+        SearchQuery query = new SearchQuery(titleFilter, authorFilter, yearFilter, mode, ignoreCase);
         boolean anyPrinted = false;
+        BookPage page = searchPage(paging, query);
+        if (page == null) {
+            return;
+        }
 
-        for (Book b : books) {
-            if (titleFilter != null && !b.getTitle().equals(titleFilter)) {
-                continue;
-            }
-            if (authorFilter != null && !b.getAuthor().equals(authorFilter)) {
-                continue;
-            }
-            if (yearFilter != null && b.getYearPublished() != yearFilter) {
-                continue;
-            }
-
+        for (Book b : page.getBooks()) {
             anyPrinted = true;
+            rows++;
             out.println(
                     b.getID() + "\t" +
                             b.getISBN() + "\t" +
@@ -572,5 +1168,6 @@ public class CommandMapper {
         if (!anyPrinted) {
             out.println("No books match the given search filters.");
         }
+        printNextCursor(page);
     }
 }
\ No newline at end of file
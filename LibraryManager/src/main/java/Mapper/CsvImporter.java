@@ -0,0 +1,297 @@
+package Mapper;
+
+import Domain.CatalogueEntry;
+import Domain.Library;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/*
+ * Reads a catalogue from CSV, one title per line:
+ *
+ *   isbn,title,author,year[,copies]
+ *
+ * An optional first line starting with "isbn" is a header. Fields may be
+ * quoted with double quotes, a doubled quote standing for a quote, but no field
+ * may span lines.
+ *
+ * The file is memory-mapped in chunks cut at line starts, and the chunks are
+ * parsed in parallel. Their rows go to Library.importCatalogue in file order in
+ * one call, so the IDs are those of a sequential import. Invalid rows are
+ * skipped and reported together, by line number, once the import is done.
+ */
+public class CsvImporter {
+
+    /* Default chunk size; a chunk extends to the end of its last line */
+    public static final int CHUNK_BYTES = 8 << 20;
+
+    private final int chunkBytes;
+
+    public CsvImporter() {
+        this(CHUNK_BYTES);
+    }
+
+    public CsvImporter(int chunkBytes) {
+        if (chunkBytes <= 0) {
+            throw new IllegalArgumentException("Invalid chunk size: " + chunkBytes);
+        }
+        this.chunkBytes = chunkBytes;
+    }
+
+    /* Outcome of an import */
+    public static final class Result {
+        private final int firstId;
+        private final int books;
+        private final int rows;
+        private final List<String> errors;
+
+        Result(int firstId, int books, int rows, List<String> errors) {
+            this.firstId = firstId;
+            this.books = books;
+            this.rows = rows;
+            this.errors = errors;
+        }
+
+        /* ID of the first book added, meaningful if any book was added */
+        public int getFirstId() {
+            return firstId;
+        }
+
+        /* Number of books added, counting every copy */
+        public int getBooks() {
+            return books;
+        }
+
+        /* Number of valid rows */
+        public int getRows() {
+            return rows;
+        }
+
+        /* "Line N: message" for every skipped row, in line order */
+        public List<String> getErrors() {
+            return errors;
+        }
+    }
+
+    /* Rows and errors of one chunk; error lines are relative to the chunk */
+    private static final class Chunk {
+        final List<CatalogueEntry> entries = new ArrayList<>();
+        final List<Integer> errorLines = new ArrayList<>();
+        final List<String> errorMessages = new ArrayList<>();
+        int lines;
+    }
+
+    public Result importFile(Library library, Path file) throws IOException {
+        List<Chunk> chunks;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long[] starts = chunkStarts(channel);
+            try {
+                chunks = IntStream.range(0, starts.length - 1).parallel()
+                        .mapToObj(i -> parse(map(channel, starts[i], starts[i + 1]), i == 0))
+                        .toList();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+
+        List<CatalogueEntry> entries = new ArrayList<>();
+        List<String> errors = new ArrayList<>();
+        long books = 0;
+        int line = 0;
+        for (Chunk chunk : chunks) {
+            for (CatalogueEntry entry : chunk.entries) {
+                entries.add(entry);
+                books += entry.getCopies();
+            }
+            for (int i = 0; i < chunk.errorLines.size(); i++) {
+                errors.add("Line " + (line + chunk.errorLines.get(i)) + ": " + chunk.errorMessages.get(i));
+            }
+            line += chunk.lines;
+        }
+        if (books > Integer.MAX_VALUE) {
+            throw new IllegalStateException("No free book IDs left in this library");
+        }
+        int firstId = entries.isEmpty() ? -1 : library.importCatalogue(entries);
+        return new Result(firstId, (int) books, entries.size(), errors);
+    }
+
+    /* Offsets where chunks start, each at a line start, followed by the file size */
+    private long[] chunkStarts(FileChannel channel) throws IOException {
+        long size = channel.size();
+        List<Long> starts = new ArrayList<>();
+        starts.add(0L);
+        ByteBuffer window = ByteBuffer.allocate(4096);
+        long next = chunkBytes;
+        while (next < size) {
+            // Move forward to the byte after the next line break
+            long at = next - 1;
+            long lineStart = -1;
+            while (lineStart < 0 && at < size) {
+                window.clear();
+                int read = channel.read(window, at);
+                if (read <= 0) {
+                    break;
+                }
+                for (int i = 0; i < read; i++) {
+                    if (window.get(i) == '\n') {
+                        lineStart = at + i + 1;
+                        break;
+                    }
+                }
+                at += read;
+            }
+            if (lineStart < 0 || lineStart >= size) {
+                break;
+            }
+            starts.add(lineStart);
+            next = Math.max(next + chunkBytes, lineStart + 1);
+        }
+        starts.add(size);
+        long[] result = new long[starts.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = starts.get(i);
+        }
+        return result;
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long from, long to) {
+        try {
+            return channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Chunk parse(ByteBuffer buffer, boolean first) {
+        Chunk chunk = new Chunk();
+        List<String> fields = new ArrayList<>(5);
+        byte[] scratch = new byte[256];
+        int limit = buffer.limit();
+        int start = 0;
+        while (start < limit) {
+            int end = start;
+            while (end < limit && buffer.get(end) != '\n') {
+                end++;
+            }
+            int next = end + 1;
+            if (end > start && buffer.get(end - 1) == '\r') {
+                end--;
+            }
+            chunk.lines++;
+
+            fields.clear();
+            String error = split(buffer, start, end, fields, scratch);
+            boolean header = first && chunk.lines == 1 && !fields.isEmpty()
+                    && "isbn".equalsIgnoreCase(fields.get(0));
+            boolean blank = end == start;
+            if (!header && !blank) {
+                if (error == null) {
+                    error = toEntry(fields, chunk.entries);
+                }
+                if (error != null) {
+                    chunk.errorLines.add(chunk.lines);
+                    chunk.errorMessages.add(error);
+                }
+            }
+            start = next;
+        }
+        return chunk;
+    }
+
+    /* Splits the line [from, to) into fields; returns an error message or null */
+    private static String split(ByteBuffer buffer, int from, int to, List<String> fields, byte[] scratch) {
+        int at = from;
+        while (true) {
+            int length = 0;
+            boolean quoted = at < to && buffer.get(at) == '"';
+            if (quoted) {
+                at++;
+                while (true) {
+                    if (at >= to) {
+                        return "Unterminated quoted field";
+                    }
+                    byte b = buffer.get(at++);
+                    if (b == '"') {
+                        if (at < to && buffer.get(at) == '"') {
+                            at++;
+                        } else {
+                            break;
+                        }
+                    }
+                    if (length == scratch.length) {
+                        scratch = Arrays.copyOf(scratch, length * 2);
+                    }
+                    scratch[length++] = b;
+                }
+                if (at < to && buffer.get(at) != ',') {
+                    return "Unexpected text after quoted field";
+                }
+                fields.add(new String(scratch, 0, length, StandardCharsets.UTF_8));
+            } else {
+                int start = at;
+                while (at < to && buffer.get(at) != ',') {
+                    at++;
+                }
+                if (at - start > scratch.length) {
+                    scratch = new byte[Math.max(at - start, scratch.length * 2)];
+                }
+                for (int i = start; i < at; i++) {
+                    scratch[length++] = buffer.get(i);
+                }
+                fields.add(new String(scratch, 0, length, StandardCharsets.UTF_8).trim());
+            }
+            if (at >= to) {
+                return null;
+            }
+            at++; // the comma
+        }
+    }
+
+    /* Validates the fields of a row and adds its entry; returns an error message or null */
+    private static String toEntry(List<String> fields, List<CatalogueEntry> entries) {
+        if (fields.size() != 4 && fields.size() != 5) {
+            return "Expected 4 or 5 fields but found " + fields.size();
+        }
+        int isbn;
+        try {
+            isbn = Integer.parseInt(fields.get(0));
+        } catch (NumberFormatException e) {
+            return "Invalid ISBN: " + fields.get(0);
+        }
+        if (fields.get(1).isEmpty()) {
+            return "Missing title";
+        }
+        if (fields.get(2).isEmpty()) {
+            return "Missing author";
+        }
+        int year;
+        try {
+            year = Integer.parseInt(fields.get(3));
+        } catch (NumberFormatException e) {
+            return "Invalid year: " + fields.get(3);
+        }
+        int copies = 1;
+        if (fields.size() == 5) {
+            try {
+                copies = Integer.parseInt(fields.get(4));
+            } catch (NumberFormatException e) {
+                copies = 0;
+            }
+            if (copies <= 0) {
+                return "Invalid copies number: " + fields.get(4);
+            }
+        }
+        entries.add(new CatalogueEntry(isbn, fields.get(1), fields.get(2), year, copies));
+        return null;
+    }
+}
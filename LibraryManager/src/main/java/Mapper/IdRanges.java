@@ -0,0 +1,136 @@
+package Mapper;
+
+import java.util.Arrays;
+
+/*
+ * Parses and prints the ID arguments of bulk commands. Every argument is either
+ * a single ID ("7") or an inclusive range ("10-20").
+ */
+public class IdRanges {
+
+    /* Upper bound for the number of IDs a single command line may expand to */
+    public static final int MAX_IDS = 100_000;
+
+    private IdRanges() {
+    }
+
+    /*
+     * Expands parts[from..] into a list of IDs in argument order. Throws
+     * NumberFormatException naming the offending argument when one is not an ID
+     * or range, and IllegalArgumentException when the line expands to more than
+     * MAX_IDS IDs.
+     */
+    public static int[] expand(String[] parts, int from) {
+        int[] ids = new int[Math.max(parts.length - from, 0)];
+        int count = 0;
+        for (int i = from; i < parts.length; i++) {
+            String arg = parts[i];
+            if (!isRange(arg)) {
+                ids = ensureCapacity(ids, count + 1);
+                ids[count++] = Integer.parseInt(arg);
+                continue;
+            }
+
+            int[] range = parseRange(arg);
+            int first = range[0];
+            int last = range[1];
+            long size = (long) last - first + 1;
+            if (count + size > MAX_IDS) {
+                throw new IllegalArgumentException("Too many IDs");
+            }
+            ids = ensureCapacity(ids, count + (int) size);
+            for (int id = first; id <= last; id++) {
+                ids[count++] = id;
+                if (id == Integer.MAX_VALUE) {
+                    break;
+                }
+            }
+        }
+        return count == ids.length ? ids : Arrays.copyOf(ids, count);
+    }
+
+    /* Returns true if the argument has the shape of a range, e.g. "10-20" */
+    public static boolean isRange(String arg) {
+        return arg.indexOf('-', 1) > 0;
+    }
+
+    /* Parses a range argument into {first, last}, throws NumberFormatException if invalid */
+    public static int[] parseRange(String arg) {
+        int dash = arg.indexOf('-', 1);
+        int first = Integer.parseInt(arg.substring(0, dash));
+        int last = Integer.parseInt(arg.substring(dash + 1));
+        if (first > last) {
+            throw new NumberFormatException(arg);
+        }
+        return new int[] { first, last };
+    }
+
+    private static int[] ensureCapacity(int[] ids, int needed) {
+        if (needed > MAX_IDS) {
+            throw new IllegalArgumentException("Too many IDs");
+        }
+        if (needed <= ids.length) {
+            return ids;
+        }
+        return Arrays.copyOf(ids, Math.max(needed, ids.length * 2));
+    }
+
+    /*
+     * Collects IDs for confirmation messages and prints runs of at least three
+     * consecutive IDs as a range: "1-5000 5002 5003".
+     */
+    public static class Builder {
+
+        private final StringBuilder sb = new StringBuilder();
+        private boolean empty = true;
+        private int runFirst;
+        private int runLast;
+
+        public Builder append(int id) {
+            return appendRange(id, id);
+        }
+
+        /* Appends every ID in [first, last] without expanding the range */
+        public Builder appendRange(int first, int last) {
+            if (!empty && runLast != Integer.MAX_VALUE && first == runLast + 1) {
+                runLast = last;
+                return this;
+            }
+            flush();
+            runFirst = first;
+            runLast = last;
+            empty = false;
+            return this;
+        }
+
+        public boolean isEmpty() {
+            return empty;
+        }
+
+        private void flush() {
+            if (empty) {
+                return;
+            }
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            if (runLast - runFirst >= 2) {
+                sb.append(runFirst).append('-').append(runLast);
+            } else {
+                sb.append(runFirst);
+                if (runLast != runFirst) {
+                    sb.append(' ').append(runLast);
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            int length = sb.length();
+            flush();
+            String result = sb.toString();
+            sb.setLength(length);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package Metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/*
+ * Flight Recorder event for one CommandMapper command. Disabled unless a
+ * recording enables "LibraryManager.Command", so the begin/commit calls in
+ * processLine reduce to a cheap check otherwise.
+ */
+@Name("LibraryManager.Command")
+@Label("Library Command")
+@Category("Library Manager")
+@Description("Execution of one command line by the CommandMapper")
+@Enabled(false)
+@StackTrace(false)
+public class CommandEvent extends Event {
+
+    @Label("Command")
+    public String command;
+
+    @Label("Argument Count")
+    public int argumentCount;
+
+    @Label("Result Size")
+    @Description("Number of result rows written by the command")
+    public int resultSize;
+
+    @Label("Error")
+    @Description("Error message printed by the command, empty when it succeeded")
+    public String error;
+}
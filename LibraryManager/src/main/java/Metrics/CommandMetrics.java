@@ -0,0 +1,149 @@
+package Metrics;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Per-command statistics collected around CommandMapper dispatch. Each command
+ * gets its own CommandStats, which is published as an MBean once register() has
+ * been called.
+ */
+public class CommandMetrics implements CommandMetricsMXBean {
+
+    public static final String DOMAIN = "LibraryManager";
+
+    private final Map<String, CommandStats> stats = new ConcurrentHashMap<>();
+    private volatile MBeanServer server;
+
+    /* Records one command execution; error is null when the command succeeded */
+    public void record(String command, long nanos, String error, int rowsEmitted) {
+        CommandStats s = stats.get(command);
+        if (s == null) {
+            s = stats.computeIfAbsent(command, this::createStats);
+        }
+        s.record(nanos, error, rowsEmitted);
+    }
+
+    public CommandStats getStats(String command) {
+        return stats.get(command);
+    }
+
+    private CommandStats createStats(String command) {
+        CommandStats s = new CommandStats(command);
+        MBeanServer mbs = server;
+        if (mbs != null) {
+            registerQuietly(mbs, s, statsName(command));
+        }
+        return s;
+    }
+
+    // ------------ JMX ------------
+
+    /* Publishes this registry and every command seen so far on the platform MBean server */
+    public void register() {
+        register(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    public synchronized void register(MBeanServer mbs) {
+        if (server != null) {
+            return;
+        }
+        server = mbs;
+        registerQuietly(mbs, this, name("type=CommandMetrics"));
+        for (CommandStats s : stats.values()) {
+            registerQuietly(mbs, s, statsName(s.getCommand()));
+        }
+    }
+
+    /* Removes all MBeans published by this registry */
+    public synchronized void unregister() {
+        MBeanServer mbs = server;
+        if (mbs == null) {
+            return;
+        }
+        server = null;
+        unregisterQuietly(mbs, name("type=CommandMetrics"));
+        for (String command : stats.keySet()) {
+            unregisterQuietly(mbs, statsName(command));
+        }
+    }
+
+    private static ObjectName statsName(String command) {
+        return name("type=CommandMetrics,command=" + ObjectName.quote(command));
+    }
+
+    private static ObjectName name(String properties) {
+        try {
+            return new ObjectName(DOMAIN + ":" + properties);
+        } catch (JMException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static void registerQuietly(MBeanServer mbs, Object bean, ObjectName name) {
+        try {
+            mbs.registerMBean(bean, name);
+        } catch (InstanceAlreadyExistsException e) {
+            // Another registry in this JVM already owns the name
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register MBean " + name, e);
+        }
+    }
+
+    private static void unregisterQuietly(MBeanServer mbs, ObjectName name) {
+        try {
+            if (mbs.isRegistered(name)) {
+                mbs.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            // Already gone
+        }
+    }
+
+    // ------------ CommandMetricsMXBean ------------
+
+    @Override
+    public String[] getCommands() {
+        return new TreeMap<>(stats).keySet().toArray(new String[0]);
+    }
+
+    /* Renders one line per command plus one indented line per error message */
+    @Override
+    public String dump() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("command\tcount\tok\terrors\trows\tmean_us\tp50_us\tp99_us\tmax_us\n");
+        for (CommandStats s : new TreeMap<>(stats).values()) {
+            sb.append(s.getCommand()).append('\t')
+                    .append(s.getCount()).append('\t')
+                    .append(s.getSuccessCount()).append('\t')
+                    .append(s.getErrorCount()).append('\t')
+                    .append(s.getRowsEmitted()).append('\t')
+                    .append(format(s.getMeanMicros())).append('\t')
+                    .append(format(s.getP50Micros())).append('\t')
+                    .append(format(s.getP99Micros())).append('\t')
+                    .append(format(s.getMaxMicros())).append('\n');
+            for (Map.Entry<String, Long> e : s.getErrorCounts().entrySet()) {
+                sb.append("  ").append(e.getValue()).append('\t').append(e.getKey()).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void reset() {
+        for (CommandStats s : stats.values()) {
+            s.reset();
+        }
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.1f", value);
+    }
+}
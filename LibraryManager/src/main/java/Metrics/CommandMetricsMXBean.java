@@ -0,0 +1,11 @@
+package Metrics;
+
+/* Management view of all command statistics */
+public interface CommandMetricsMXBean {
+
+    String[] getCommands();
+
+    String dump();
+
+    void reset();
+}
@@ -0,0 +1,135 @@
+package Metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Latency, outcome and output counters for a single command name */
+public class CommandStats implements CommandStatsMXBean {
+
+    /* Error messages beyond this many distinct keys are counted as "other" */
+    private static final int MAX_ERROR_KEYS = 64;
+    private static final String OTHER_ERRORS = "other";
+
+    private final String command;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder successes = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+    public CommandStats(String command) {
+        this.command = command;
+    }
+
+    /* Records one execution; error is null when the command succeeded */
+    public void record(long nanos, String error, int rowsEmitted) {
+        latency.record(nanos);
+        if (rowsEmitted > 0) {
+            rows.add(rowsEmitted);
+        }
+        if (error == null) {
+            successes.increment();
+        } else {
+            errorCounter(normalize(error)).increment();
+        }
+    }
+
+    private LongAdder errorCounter(String key) {
+        LongAdder counter = errors.get(key);
+        if (counter != null) {
+            return counter;
+        }
+        if (errors.size() >= MAX_ERROR_KEYS) {
+            key = OTHER_ERRORS;
+        }
+        return errors.computeIfAbsent(key, k -> new LongAdder());
+    }
+
+    /* Replaces digit runs so that e.g. "No book found with ID 7." is one key */
+    private static String normalize(String message) {
+        StringBuilder sb = null;
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (sb == null) {
+                    sb = new StringBuilder(message.length());
+                    sb.append(message, 0, i);
+                }
+                if (sb.length() == 0 || sb.charAt(sb.length() - 1) != '#') {
+                    sb.append('#');
+                }
+            } else if (sb != null) {
+                sb.append(c);
+            }
+        }
+        return sb == null ? message : sb.toString();
+    }
+
+    @Override
+    public String getCommand() {
+        return command;
+    }
+
+    @Override
+    public long getCount() {
+        return latency.getCount();
+    }
+
+    @Override
+    public long getSuccessCount() {
+        return successes.sum();
+    }
+
+    @Override
+    public long getErrorCount() {
+        long sum = 0;
+        for (LongAdder counter : errors.values()) {
+            sum += counter.sum();
+        }
+        return sum;
+    }
+
+    @Override
+    public Map<String, Long> getErrorCounts() {
+        Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> e : errors.entrySet()) {
+            result.put(e.getKey(), e.getValue().sum());
+        }
+        return result;
+    }
+
+    @Override
+    public long getRowsEmitted() {
+        return rows.sum();
+    }
+
+    @Override
+    public double getMeanMicros() {
+        long count = latency.getCount();
+        return count == 0 ? 0 : latency.getTotalNanos() / 1000.0 / count;
+    }
+
+    @Override
+    public double getP50Micros() {
+        return latency.getPercentileNanos(50) / 1000.0;
+    }
+
+    @Override
+    public double getP99Micros() {
+        return latency.getPercentileNanos(99) / 1000.0;
+    }
+
+    @Override
+    public double getMaxMicros() {
+        return latency.getMaxNanos() / 1000.0;
+    }
+
+    @Override
+    public void reset() {
+        latency.reset();
+        successes.reset();
+        rows.reset();
+        errors.clear();
+    }
+}
@@ -0,0 +1,29 @@
+package Metrics;
+
+import java.util.Map;
+
+/* Management view of the statistics collected for one command */
+public interface CommandStatsMXBean {
+
+    String getCommand();
+
+    long getCount();
+
+    long getSuccessCount();
+
+    long getErrorCount();
+
+    Map<String, Long> getErrorCounts();
+
+    long getRowsEmitted();
+
+    double getMeanMicros();
+
+    double getP50Micros();
+
+    double getP99Micros();
+
+    double getMaxMicros();
+
+    void reset();
+}
@@ -0,0 +1,42 @@
+package Metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/*
+ * Flight Recorder event for one state change of the Library. Disabled unless a
+ * recording enables "LibraryManager.Mutation".
+ */
+@Name("LibraryManager.Mutation")
+@Label("Library Mutation")
+@Category("Library Manager")
+@Description("A book was added, removed, borrowed, returned or extended")
+@Enabled(false)
+@StackTrace(false)
+public class LibraryMutationEvent extends Event {
+
+    public static final String ADD = "add";
+    public static final String REMOVE = "remove";
+    public static final String BORROW = "borrow";
+    public static final String RETURN = "return";
+    public static final String EXTEND = "extend";
+
+    @Label("Operation")
+    public String operation;
+
+    @Label("Book ID")
+    @Description("Affected book, or the first one for range operations")
+    public int bookId;
+
+    @Label("Count")
+    @Description("Number of books affected")
+    public int count;
+
+    @Label("Success")
+    public boolean success;
+}
@@ -0,0 +1,121 @@
+package Runner;
+
+import Metrics.CommandMetrics;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Stream;
+
+/*
+ * Runs many independent scripts on a work-stealing pool. Every script gets its
+ * own Library and CommandMapper, so scripts share nothing but the optional
+ * metrics registry, and throughput grows with the number of cores.
+ */
+public class BatchRunner {
+
+    private final ForkJoinPool pool;
+    private final ScriptRunner runner;
+
+    public BatchRunner() {
+        this(Runtime.getRuntime().availableProcessors(), null);
+    }
+
+    public BatchRunner(int parallelism, CommandMetrics metrics) {
+        this.pool = new ForkJoinPool(parallelism);
+        this.runner = new ScriptRunner(metrics);
+    }
+
+    /* Runs every regular file of the directory, results are ordered by file name */
+    public List<ScriptResult> runDirectory(Path directory) throws IOException {
+        List<Path> scripts;
+        try (Stream<Path> files = Files.list(directory)) {
+            scripts = files.filter(Files::isRegularFile).sorted().toList();
+        }
+        return run(scripts);
+    }
+
+    public List<ScriptResult> run(List<Path> scripts) {
+        ScriptResult[] results = new ScriptResult[scripts.size()];
+        pool.invoke(new RunTask(runner, scripts, results, 0, scripts.size()));
+        return Arrays.asList(results);
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /* Splits the script list in halves until single scripts remain */
+    private static final class RunTask extends RecursiveTask<Void> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ScriptRunner runner;
+        private final List<Path> scripts;
+        private final ScriptResult[] results;
+        private final int from;
+        private final int to;
+
+        RunTask(ScriptRunner runner, List<Path> scripts, ScriptResult[] results, int from, int to) {
+            this.runner = runner;
+            this.scripts = scripts;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Void compute() {
+            if (to - from <= 1) {
+                if (from < to) {
+                    results[from] = runner.run(scripts.get(from));
+                }
+                return null;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new RunTask(runner, scripts, results, from, mid), new RunTask(runner, scripts, results, mid, to));
+            return null;
+        }
+    }
+
+    // ------------ Summary ------------
+
+    /* One line per script plus a total line, aborted scripts list their error */
+    public static String summarize(List<ScriptResult> results, long wallNanos) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("script\tlines\tfailed\tms\tstatus\n");
+        long cpuNanos = 0;
+        int aborted = 0;
+        List<String> errors = new ArrayList<>();
+        for (ScriptResult r : results) {
+            cpuNanos += r.getElapsedNanos();
+            sb.append(r.getName()).append('\t')
+                    .append(r.getLinesProcessed()).append('\t')
+                    .append(r.getFailedCommands()).append('\t')
+                    .append(millis(r.getElapsedNanos())).append('\t')
+                    .append(r.isAborted() ? "ABORTED" : "OK").append('\n');
+            if (r.isAborted()) {
+                aborted++;
+                errors.add(r.getName() + ": " + r.getError());
+            }
+        }
+        sb.append("Scripts: ").append(results.size())
+                .append(", aborted: ").append(aborted)
+                .append(", wall ms: ").append(millis(wallNanos))
+                .append(", script ms: ").append(millis(cpuNanos)).append('\n');
+        for (String error : errors) {
+            sb.append(error).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1_000_000.0);
+    }
+}
@@ -0,0 +1,294 @@
+package Runner;
+
+import Domain.Library;
+import Mapper.CommandMapper;
+import Mapper.IdRanges;
+import Metrics.CommandMetrics;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * Executes a single script on several cores while printing exactly what a
+ * sequential run would print.
+ *
+ * Lines are pre-parsed into their write sets: the book IDs touched by borrow,
+ * return, extend and remove. Every other command (log, logout, add, list,
+ * search, check and anything unknown) touches the session, the ID allocator or
+ * the whole catalogue and is a barrier. The lines between two barriers form a
+ * wave; within a wave, commands sharing a book ID are chained into one group
+ * and run in script order, while different groups run in parallel. Each
+ * command prints into its own slice of a group buffer, and the slices are
+ * written out in script order once the wave is done.
+ *
+ * Once a script has placed a hold or borrowed by ISBN, returns are barriers as
+ * well: which waiting user a returned copy goes to, and which copy a later
+ * borrow -i gets, depend on the order of returns of one ISBN.
+ * Every line from begin to commit or abort is a barrier too, as the buffered
+ * transaction belongs to the sequential session.
+ *
+ * history is a barrier like every read, and lists a user's loans in the order
+ * they were applied. As a wave applies loans of different books in any order,
+ * every borrow, return and extend before the script's last history -u line is
+ * a barrier; the script is read in full first to find that line.
+ */
+public class ParallelScriptRunner {
+
+    /* Waves are cut at this size to bound the memory held for buffered output */
+    private static final int MAX_WAVE = 1 << 16;
+    /* Removal ranges wider than this are treated as barriers */
+    private static final int MAX_RANGE = 4096;
+    /* Number of groups a single task runs back to back */
+    private static final int GROUPS_PER_TASK = 64;
+
+    private final ForkJoinPool pool;
+    private final CommandMetrics metrics;
+
+    public ParallelScriptRunner(int parallelism, CommandMetrics metrics) {
+        this.pool = new ForkJoinPool(parallelism);
+        this.metrics = metrics;
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /* Runs the whole script against the library, writing the output to out */
+    public void run(Library library, BufferedReader script, PrintStream out) throws IOException {
+        List<String> lines = new ArrayList<>();
+        int lastUserHistory = -1;
+        String text;
+        while ((text = script.readLine()) != null) {
+            String[] parts = text.trim().split("\\s+", 3);
+            if ("history".equals(parts[0]) && parts.length > 1 && "-u".equals(parts[1])) {
+                lastUserHistory = lines.size();
+            }
+            lines.add(text);
+        }
+
+        CommandMapper sequential = new CommandMapper(library, out, metrics);
+        List<Line> wave = new ArrayList<>();
+        // Set once returns of one ISBN have to stay in script order
+        boolean orderedReturns = false;
+        boolean inTransaction = false;
+        for (int i = 0; i < lines.size(); i++) {
+            text = lines.get(i);
+            int[] ids = writeSet(text);
+            String[] parts = text.trim().split("\\s+", 3);
+            String command = parts[0];
+            // Loans a later history -u lists have to be applied in script order
+            boolean orderedLoan = i < lastUserHistory
+                    && ("borrow".equals(command) || "return".equals(command) || "extend".equals(command));
+            orderedReturns |= "hold".equals(command)
+                    || "borrow".equals(command) && parts.length > 1 && "-i".equals(parts[1]);
+            boolean transactional = inTransaction || "begin".equals(command);
+            if ("begin".equals(command)) {
+                inTransaction = true;
+            } else if ("commit".equals(command) || "abort".equals(command) || "logout".equals(command)) {
+                inTransaction = false;
+            }
+            if (ids == null || transactional || orderedLoan || (orderedReturns && "return".equals(command))) {
+                runWave(library, wave, out);
+                sequential.processLine(text);
+                continue;
+            }
+            wave.add(new Line(text, ids));
+            if (wave.size() == MAX_WAVE) {
+                runWave(library, wave, out);
+            }
+        }
+        runWave(library, wave, out);
+        out.flush();
+    }
+
+    private void runWave(Library library, List<Line> wave, PrintStream out) {
+        if (wave.isEmpty()) {
+            return;
+        }
+        List<List<Line>> groups = group(wave);
+        if (groups.size() <= GROUPS_PER_TASK) {
+            runGroups(library, groups, 0, groups.size());
+        } else {
+            pool.invoke(new GroupTask(this, library, groups, 0, groups.size()));
+        }
+        for (Line line : wave) {
+            out.print(line.output);
+        }
+        wave.clear();
+    }
+
+    /* Runs groups [from, to) one after another, capturing each line's output */
+    private void runGroups(Library library, List<List<Line>> groups, int from, int to) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        PrintStream ps = new PrintStream(buffer, false, StandardCharsets.UTF_8);
+        CommandMapper mapper = new CommandMapper(library, ps, metrics);
+        for (int g = from; g < to; g++) {
+            for (Line line : groups.get(g)) {
+                mapper.processLine(line.text);
+                ps.flush();
+                line.output = buffer.toString(StandardCharsets.UTF_8);
+                buffer.reset();
+            }
+        }
+    }
+
+    /* Union-find over the lines of a wave, joined by shared book IDs */
+    private static List<List<Line>> group(List<Line> wave) {
+        int[] parent = new int[wave.size()];
+        Map<Integer, Integer> owner = new HashMap<>();
+        for (int i = 0; i < wave.size(); i++) {
+            parent[i] = i;
+            for (int id : wave.get(i).ids) {
+                Integer previous = owner.putIfAbsent(id, i);
+                if (previous != null) {
+                    union(parent, previous, i);
+                }
+            }
+        }
+
+        Map<Integer, List<Line>> byRoot = new HashMap<>();
+        List<List<Line>> groups = new ArrayList<>();
+        for (int i = 0; i < wave.size(); i++) {
+            List<Line> group = byRoot.get(find(parent, i));
+            if (group == null) {
+                group = new ArrayList<>();
+                byRoot.put(find(parent, i), group);
+                groups.add(group);
+            }
+            group.add(wave.get(i));
+        }
+        return groups;
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        int rootA = find(parent, a);
+        int rootB = find(parent, b);
+        if (rootA != rootB) {
+            parent[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+        }
+    }
+
+    /*
+     * Returns the book IDs a line writes, an empty set for lines that only print
+     * (comments, malformed arguments), or null if the line is a barrier.
+     */
+    static int[] writeSet(String text) {
+        String line = text.trim();
+        if (line.isEmpty() || line.startsWith("#")) {
+            return new int[0];
+        }
+        String[] parts = line.split("\\s+");
+        switch (parts[0]) {
+            case "borrow":
+                // borrow -i picks its copy at run time
+                return parts.length > 1 && "-i".equals(parts[1]) ? null : loanIds(parts);
+            case "return":
+            case "extend":
+                return loanIds(parts);
+            case "remove":
+                return removeIds(parts);
+            default:
+                return null;
+        }
+    }
+
+    private static int[] loanIds(String[] parts) {
+        List<String> args = new ArrayList<>();
+        for (int i = 1; i < parts.length; i++) {
+            if (!"-atomic".equals(parts[i])) {
+                args.add(parts[i]);
+            }
+        }
+        try {
+            return IdRanges.expand(args.toArray(new String[0]), 0);
+        } catch (IllegalArgumentException e) {
+            // Only prints an error message
+            return new int[0];
+        }
+    }
+
+    private static int[] removeIds(String[] parts) {
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 1; i < parts.length; i++) {
+            try {
+                if (IdRanges.isRange(parts[i])) {
+                    int[] range = IdRanges.parseRange(parts[i]);
+                    if ((long) range[1] - range[0] >= MAX_RANGE) {
+                        return null;
+                    }
+                    for (int id = range[0]; id <= range[1]; id++) {
+                        ids.add(id);
+                    }
+                } else {
+                    ids.add(Integer.parseInt(parts[i]));
+                }
+            } catch (NumberFormatException e) {
+                // Reported by the command itself
+            }
+        }
+        int[] result = new int[ids.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ids.get(i);
+        }
+        return result;
+    }
+
+    /* One script line of a wave together with its captured output */
+    private static final class Line {
+        final String text;
+        final int[] ids;
+        String output;
+
+        Line(String text, int[] ids) {
+            this.text = text;
+            this.ids = ids;
+        }
+    }
+
+    private static final class GroupTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ParallelScriptRunner runner;
+        private final Library library;
+        private final List<List<Line>> groups;
+        private final int from;
+        private final int to;
+
+        GroupTask(ParallelScriptRunner runner, Library library, List<List<Line>> groups, int from, int to) {
+            this.runner = runner;
+            this.library = library;
+            this.groups = groups;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= GROUPS_PER_TASK) {
+                runner.runGroups(library, groups, from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new GroupTask(runner, library, groups, from, mid),
+                    new GroupTask(runner, library, groups, mid, to));
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package Runner;
+
+/* Outcome of running one command script against its own library */
+public class ScriptResult {
+
+    private final String name;
+    private final String output;
+    private final long elapsedNanos;
+    private final int linesProcessed;
+    private final int failedCommands;
+    private final String error;
+
+    public ScriptResult(String name, String output, long elapsedNanos, int linesProcessed,
+            int failedCommands, String error) {
+        this.name = name;
+        this.output = output;
+        this.elapsedNanos = elapsedNanos;
+        this.linesProcessed = linesProcessed;
+        this.failedCommands = failedCommands;
+        this.error = error;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /* Everything the script printed, also when it was aborted by an error */
+    public String getOutput() {
+        return output;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public int getLinesProcessed() {
+        return linesProcessed;
+    }
+
+    /* Number of commands that printed an error message */
+    public int getFailedCommands() {
+        return failedCommands;
+    }
+
+    /* Exception that aborted the script, or null if it ran to the end */
+    public String getError() {
+        return error;
+    }
+
+    public boolean isAborted() {
+        return error != null;
+    }
+}
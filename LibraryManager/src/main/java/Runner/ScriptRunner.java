@@ -0,0 +1,71 @@
+package Runner;
+
+import Domain.Library;
+import Mapper.CommandMapper;
+import Metrics.CommandMetrics;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/* Runs one command script against a fresh Library and CommandMapper */
+public class ScriptRunner {
+
+    private final CommandMetrics metrics;
+
+    public ScriptRunner() {
+        this(null);
+    }
+
+    /* The metrics registry may be shared by runners on different threads */
+    public ScriptRunner(CommandMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public ScriptResult run(Path script) {
+        String name = script.getFileName().toString();
+        try (Reader reader = Files.newBufferedReader(script, StandardCharsets.UTF_8)) {
+            return run(name, reader);
+        } catch (IOException e) {
+            return new ScriptResult(name, "", 0, 0, 0, "Error reading " + name + ": " + e.getMessage());
+        }
+    }
+
+    /*
+     * Executes every line of the script. A runtime exception aborts the script
+     * and is reported in the result together with the output printed so far.
+     */
+    public ScriptResult run(String name, Reader script) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        int lines = 0;
+        int failed = 0;
+        String error = null;
+
+        long start = System.nanoTime();
+        try (PrintStream ps = new PrintStream(baos, false, StandardCharsets.UTF_8)) {
+            CommandMapper mapper = new CommandMapper(new Library(), ps, metrics);
+            BufferedReader reader = new BufferedReader(script);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines++;
+                try {
+                    mapper.processLine(line);
+                } catch (RuntimeException e) {
+                    error = "Line " + lines + ": " + e;
+                    break;
+                }
+                if (mapper.getLastError() != null) {
+                    failed++;
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        return new ScriptResult(name, baos.toString(StandardCharsets.UTF_8), elapsed, lines, failed, error);
+    }
+}
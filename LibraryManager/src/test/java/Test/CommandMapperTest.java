@@ -1,17 +1,59 @@
 package Test;
 
 import Domain.Book;
+import Domain.BookPage;
+import Domain.CatalogueStats;
+import Domain.ColumnarBookStore;
+import Domain.CommitLog;
+import Domain.HoldResult;
 import Domain.Library;
+import Domain.LibrarySweeper;
+import Domain.LoanEvent;
+import Domain.LoanResult;
+import Domain.MatchMode;
+import Domain.OffHeapBookStore;
+import Domain.PartitionedLibrary;
+import Domain.SearchQuery;
+import Domain.SortOrder;
+import Domain.Transaction;
 import Mapper.CommandMapper;
+import Mapper.CsvImporter;
+import Metrics.CommandMetrics;
+import Metrics.CommandStats;
+import Runner.BatchRunner;
+import Runner.ParallelScriptRunner;
+import Runner.ScriptResult;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
+import java.io.StringReader;
 import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.Date;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -26,10 +68,10 @@ public class CommandMapperTest {
     @BeforeEach
     void setUp() {
         library = new Library();
-        mapper = new CommandMapper(library, originalOut);
-
         originalOut = System.out;
         System.setOut(new PrintStream(outContent));
+
+        mapper = new CommandMapper(library, System.out);
     }
 
     @AfterEach
@@ -968,4 +1010,1569 @@ public class CommandMapperTest {
         assertFalse(isAdmin);
     }
 
+    // TC-71 Verify command metrics count successes, errors and rows
+    @Test
+    void tc71_commandMetricsRecordOutcome() {
+        CommandMetrics metrics = new CommandMetrics();
+        mapper = new CommandMapper(library, System.out, metrics);
+        loginUser("Alice");
+        addSampleBook(100, "Title", "Author", 2000);
+        addSampleBook(101, "Title", "Author", 2000);
+
+        mapper.processLine("list");
+        mapper.processLine("borrow 99");
+        mapper.processLine("borrow 98");
+        mapper.processLine("dance");
+
+        CommandStats list = metrics.getStats("list");
+        assertEquals(1, list.getSuccessCount());
+        assertEquals(2, list.getRowsEmitted());
+
+        CommandStats borrow = metrics.getStats("borrow");
+        assertEquals(2, borrow.getErrorCount());
+        assertEquals(2L, borrow.getErrorCounts().get("No book found with ID #."));
+
+        assertEquals(1, metrics.getStats("unknown").getErrorCount());
+        assertTrue(metrics.dump().contains("borrow\t2\t0\t2\t0"));
+    }
+
+    // TC-72 Verify flight recorder events for commands and library mutations
+    @Test
+    void tc72_flightRecorderEvents() throws Exception {
+        Path file = Files.createTempFile("library", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("LibraryManager.Command");
+            recording.enable("LibraryManager.Mutation");
+            recording.start();
+
+            loginUser("admin");
+            mapper.processLine("add -t Title -a Author -d 2000 -i 100");
+            mapper.processLine("list");
+
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        Files.delete(file);
+
+        RecordedEvent list = events.stream()
+                .filter(e -> e.getEventType().getName().equals("LibraryManager.Command"))
+                .filter(e -> "list".equals(e.getString("command")))
+                .findFirst().orElseThrow();
+        assertEquals(1, list.getInt("resultSize"));
+
+        RecordedEvent add = events.stream()
+                .filter(e -> e.getEventType().getName().equals("LibraryManager.Mutation"))
+                .findFirst().orElseThrow();
+        assertEquals("add", add.getString("operation"));
+        assertEquals(1, add.getInt("bookId"));
+    }
+
+    // TC-73 Verify bulk borrow with IDs and ranges reports one line per ID
+    @Test
+    void tc73_bulkBorrowWithRange() {
+        loginUser("Alice");
+        for (int i = 0; i < 4; i++) {
+            addSampleBook(100 + i, "Title", "Author", 2000);
+        }
+        library.getBookById(2).borrow(new Domain.User("Bob"));
+        resetOutput();
+
+        mapper.processLine("borrow 1-3 9");
+        String[] lines = getOutput().split("\n");
+        assertEquals(4, lines.length);
+        assertTrue(lines[0].startsWith("Book 1 borrowed by Alice until "));
+        assertEquals("Book 2 is already borrowed.", lines[1]);
+        assertTrue(lines[2].startsWith("Book 3 borrowed by Alice until "));
+        assertEquals("No book found with ID 9.", lines[3]);
+    }
+
+    // TC-74 Verify all-or-nothing bulk return leaves state untouched on failure
+    @Test
+    void tc74_atomicBulkReturnAborts() {
+        loginUser("Alice");
+        addSampleBook(100, "Title", "Author", 2000);
+        addSampleBook(101, "Title", "Author", 2000);
+        mapper.processLine("borrow 1");
+        resetOutput();
+
+        mapper.processLine("return -atomic 1 2");
+        String expected = "Book 1 skipped: batch aborted.\n"
+                + "Book 2 is not currently borrowed.\n"
+                + "Batch aborted: no books were changed.";
+        assertEquals(expected, getOutput());
+        assertFalse(library.getBookById(1).isAvailable());
+
+        resetOutput();
+        mapper.processLine("extend 1 1");
+        String[] lines = getOutput().split("\n");
+        assertTrue(lines[0].startsWith("Book 1: Loan extended. New limit date: "));
+        assertEquals("Book 1: Extension limit reached", lines[1]);
+    }
+
+    // TC-75 Verify many copies are confirmed as one ID range
+    @Test
+    void tc75_addManyCopiesCompactOutput() {
+        loginUser("admin");
+        mapper.processLine("add -t Java -a Gosling -d 1995 -i 100 -n 1000");
+        assertEquals("The books are registered as 1-1000.", getOutput());
+        assertEquals(1000, library.getAllBooks().size());
+    }
+
+    // TC-76 Verify range removal reports removed and missing IDs as ranges
+    @Test
+    void tc76_removeRange() {
+        loginUser("admin");
+        mapper.processLine("add -t Java -a Gosling -d 1995 -i 100 -n 10");
+        mapper.processLine("remove 4");
+        resetOutput();
+
+        mapper.processLine("remove 2-8 20-22");
+        String ls = System.lineSeparator();
+        String expected = "The following books were removed: 2 3 5-8." + ls +
+                "The following IDs do not exist: 4 20-22.";
+        assertEquals(expected, getOutput());
+        assertEquals(3, library.getAllBooks().size());
+        assertNotNull(library.getBookById(9));
+        assertNull(library.getBookById(5));
+    }
+
+    // TC-77 Verify prefix, substring and case-insensitive search modes
+    @Test
+    void tc77_searchMatchModes() {
+        loginUser("Alice");
+        addSampleBook(100, "JavaBasics", "Gosling", 1995);
+        addSampleBook(101, "AdvancedJava", "Bloch", 2001);
+        addSampleBook(102, "Go", "Pike", 2015);
+        resetOutput();
+
+        mapper.processLine("search -t Java -m prefix");
+        assertEquals("1\t100\tJavaBasics\tGosling\t1995", getOutput());
+
+        resetOutput();
+        mapper.processLine("search -t java -m substring -c insensitive");
+        String[] lines = getOutput().split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[1].startsWith("2\t101\tAdvancedJava"));
+
+        resetOutput();
+        mapper.processLine("search -a go -m exact -c insensitive");
+        assertEquals("No books match the given search filters.", getOutput());
+
+        resetOutput();
+        mapper.processLine("search -t go -c insensitive");
+        assertEquals("3\t102\tGo\tPike\t2015", getOutput());
+    }
+
+    // TC-78 Verify removed books disappear from indexed search
+    @Test
+    void tc78_searchAfterRemove() {
+        loginUser("admin");
+        mapper.processLine("add -t Java -a Gosling -d 1995 -i 100 -n 3");
+        mapper.processLine("remove 2");
+        resetOutput();
+
+        mapper.processLine("search -t av -m substring");
+        String[] lines = getOutput().split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].startsWith("1\t"));
+        assertTrue(lines[1].startsWith("3\t"));
+
+        resetOutput();
+        mapper.processLine("search -t Java -m bogus");
+        assertEquals("Invalid match mode in search filter: bogus", getOutput());
+    }
+
+    // TC-79 Verify list snapshots are not affected by later writes
+    @Test
+    void tc79_snapshotIsolation() {
+        addSampleBook(100, "A", "X", 2000);
+        addSampleBook(101, "B", "Y", 2000);
+        List<Book> snapshot = library.getAllBooks();
+
+        library.removeBook(1);
+        addSampleBook(102, "C", "Z", 2000);
+
+        assertEquals(2, snapshot.size());
+        assertEquals("A", snapshot.get(0).getTitle());
+        assertEquals("B", snapshot.get(1).getTitle());
+        assertEquals(2, library.getAllBooks().size());
+        assertEquals("C", library.getAllBooks().get(1).getTitle());
+    }
+
+    // TC-80 Verify snapshot contents across chunk boundaries after random removals
+    @Test
+    void tc80_snapshotMatchesReference() {
+        library.addCopies(100, "T", "A", 2000, 5000);
+        List<Integer> expected = new ArrayList<>();
+        for (int id = 1; id <= 5000; id++) {
+            expected.add(id);
+        }
+
+        Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            int first = 1 + random.nextInt(5000);
+            int last = Math.min(5000, first + random.nextInt(round % 10 == 0 ? 1500 : 3));
+            library.removeRange(first, last);
+            expected.removeIf(id -> id >= first && id <= last);
+        }
+
+        List<Book> books = library.getAllBooks();
+        assertEquals(expected.size(), books.size());
+        int i = 0;
+        for (Book b : books) {
+            assertEquals(expected.get(i), b.getID());
+            assertEquals(expected.get(i), books.get(i).getID());
+            i++;
+        }
+    }
+
+    // TC-81 Verify commands are routed and merged across library partitions
+    @Test
+    void tc81_partitionedLibraryRouting() {
+        PartitionedLibrary partitioned = new PartitionedLibrary(4, 1000);
+        library = partitioned;
+        mapper = new CommandMapper(library, System.out);
+        loginUser("admin");
+
+        for (int isbn = 100; isbn < 108; isbn++) {
+            mapper.processLine("add -t T" + isbn + " -a A -d 2000 -i " + isbn);
+        }
+        resetOutput();
+
+        List<Book> all = library.getAllBooks();
+        assertEquals(8, all.size());
+        for (int i = 1; i < all.size(); i++) {
+            assertTrue(all.get(i - 1).getID() < all.get(i).getID());
+        }
+        Book first = all.get(0);
+        Book last = all.get(7);
+        assertNotSame(partitioned.partitionOf(first.getID()), partitioned.partitionOf(last.getID()));
+
+        mapper.processLine("search -a A");
+        assertEquals(8, getOutput().split("\n").length);
+
+        resetOutput();
+        mapper.processLine("borrow -atomic " + first.getID() + " " + last.getID() + " 3999");
+        assertTrue(getOutput().endsWith("Batch aborted: no books were changed."));
+        assertTrue(first.isAvailable());
+
+        resetOutput();
+        mapper.processLine("borrow " + first.getID() + " " + last.getID());
+        assertFalse(first.isAvailable());
+        assertFalse(last.isAvailable());
+
+        resetOutput();
+        mapper.processLine("list -br");
+        assertEquals(2, getOutput().split("\n").length);
+
+        library.removeRange(1, 4000);
+        assertTrue(library.getAllBooks().isEmpty());
+    }
+
+    // TC-82 Verify batch runner executes each script against its own library
+    @Test
+    void tc82_batchRunnerIsolatesScripts() throws Exception {
+        Path dir = Files.createTempDirectory("scripts");
+        Files.writeString(dir.resolve("a.txt"), "log admin\nadd -t A -a X -d 2000 -i 1\nborrow 7\n");
+        Files.writeString(dir.resolve("b.txt"), "log admin\nadd -t B -a Y -d 2000 -i 2\nlist\n");
+
+        BatchRunner runner = new BatchRunner(2, null);
+        List<ScriptResult> results;
+        try {
+            results = runner.runDirectory(dir);
+        } finally {
+            runner.shutdown();
+            Files.delete(dir.resolve("a.txt"));
+            Files.delete(dir.resolve("b.txt"));
+            Files.delete(dir);
+        }
+
+        assertEquals(2, results.size());
+        assertEquals("a.txt", results.get(0).getName());
+        assertEquals(1, results.get(0).getFailedCommands());
+        assertTrue(results.get(1).getOutput().contains("The book is registered as 1."));
+        assertTrue(results.get(1).getOutput().contains("1\tB\tY\t2000"));
+        assertFalse(results.get(1).isAborted());
+    }
+
+    // TC-83 Verify parallel execution of one script prints the sequential output
+    @Test
+    void tc83_parallelScriptMatchesSequential() throws Exception {
+        StringBuilder script = new StringBuilder("log admin\nadd -t T -a A -d 2000 -i 1 -n 300\nlogout\nlog alice\n");
+        Random random = new Random(7);
+        String[] commands = { "borrow", "return", "extend", "borrow", "remove" };
+        for (int i = 0; i < 3000; i++) {
+            script.append(commands[random.nextInt(commands.length)]).append(' ')
+                    .append(1 + random.nextInt(320));
+            if (random.nextInt(10) == 0) {
+                script.append(' ').append(1 + random.nextInt(320));
+            }
+            script.append('\n');
+            if (i % 1000 == 999) {
+                script.append("check\nlogout\nlog bob\n");
+            }
+        }
+
+        ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+        CommandMapper single = new CommandMapper(new Library(), new PrintStream(sequential, true));
+        for (String line : script.toString().split("\n")) {
+            single.processLine(line);
+        }
+
+        ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+        ParallelScriptRunner runner = new ParallelScriptRunner(4, null);
+        try (PrintStream ps = new PrintStream(parallel, true)) {
+            runner.run(new Library(), new BufferedReader(new StringReader(script.toString())), ps);
+        } finally {
+            runner.shutdown();
+        }
+
+        assertEquals(sequential.toString(), parallel.toString());
+    }
+
+    // TC-84 Verify the columnar and off-heap stores print the same output as the default store
+    @Test
+    void tc84_alternativeStoresMatchDefault() {
+        StringBuilder script = new StringBuilder("log admin\nadd -t Dune -a Herbert -d 1965 -i 1 -n 5000\n");
+        script.append("add -t Emma -a Austen -d 1815 -i 2 -n 3\nremove 10-4000\nlogout\nlog alice\n");
+        Random random = new Random(11);
+        String[] commands = { "borrow", "return", "extend", "borrow" };
+        for (int i = 0; i < 2000; i++) {
+            script.append(commands[random.nextInt(commands.length)]).append(' ')
+                    .append(1 + random.nextInt(5010)).append('\n');
+        }
+        script.append("check\nlist -br\nsearch -a austen -c insensitive\nlogout\nlog admin\nremove 5001\nlist\n");
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        CommandMapper reference = new CommandMapper(new Library(), new PrintStream(expected, true));
+        ByteArrayOutputStream columnarOut = new ByteArrayOutputStream();
+        CommandMapper columnar = new CommandMapper(new Library(new ColumnarBookStore(1)), new PrintStream(columnarOut, true));
+        ByteArrayOutputStream offHeapOut = new ByteArrayOutputStream();
+        CommandMapper offHeap = new CommandMapper(new Library(new OffHeapBookStore(1)), new PrintStream(offHeapOut, true));
+        for (String line : script.toString().split("\n")) {
+            reference.processLine(line);
+            columnar.processLine(line);
+            offHeap.processLine(line);
+        }
+
+        assertEquals(expected.toString(), columnarOut.toString());
+        assertEquals(expected.toString(), offHeapOut.toString());
+        assertTrue(offHeapOut.toString().contains("5002\tEmma\tAusten\t1815"));
+    }
+
+    // TC-85 Verify titles, authors and usernames are interned per library and compared by ID
+    @Test
+    void tc85_stringsAreInterned() {
+        Library other = new Library(new OffHeapBookStore(1));
+        Book first = other.addSingleBook(100, new String("Dune"), new String("Herbert"), 1965);
+        Book second = other.addSingleBook(100, new String("Dune"), new String("Herbert"), 1965);
+        assertEquals(first.getTitleId(), second.getTitleId());
+        assertEquals(first.getAuthorId(), second.getAuthorId());
+        assertNotEquals(first.getTitleId(), first.getAuthorId());
+        assertSame(other.getUsers().login(new String("alice")), other.getUsers().login("alice"));
+        assertNull(library.getUsers().find("alice"));
+
+        library.addSingleBook(100, "Dune", "Herbert", 1965);
+        loginUser("alice");
+        mapper.processLine("borrow 1");
+        library.setCurrentUser(new Domain.User(new String("alice")));
+        resetOutput();
+        mapper.processLine("return 1");
+        assertTrue(getOutput().contains("Book 1 returned."));
+
+        resetOutput();
+        mapper.processLine("search -t Dun");
+        assertTrue(getOutput().contains("No books match the given search filters."));
+        resetOutput();
+        mapper.processLine("search -t Dune -a Herbert");
+        assertTrue(getOutput().contains("Dune"));
+    }
+
+    // TC-86 Verify logins reuse one registered user and loans reference its ID
+    @Test
+    void tc86_userRegistryCanonicalizesUsers() {
+        library.addSingleBook(100, "Dune", "Herbert", 1965);
+        loginUser("carol");
+        Domain.User first = library.getCurrentUser();
+        mapper.processLine("borrow 1");
+        mapper.processLine("logout");
+        loginUser("carol");
+        assertSame(first, library.getCurrentUser());
+        assertEquals(first.getUserId(), library.getBookById(1).getBorrowerId());
+        mapper.processLine("logout");
+
+        loginUser("admin");
+        assertTrue(library.isCurrentUserAdmin());
+        mapper.processLine("logout");
+
+        resetOutput();
+        mapper.processLine("log bob1");
+        mapper.processLine("log b\u00f6b");
+        assertEquals("Invalid username format" + System.lineSeparator() + "Invalid username format",
+                getOutput().trim());
+        assertFalse(library.hasLoggedInUser());
+    }
+
+    // TC-87 Verify borrow -i hands out available copies of an ISBN until none is left
+    @Test
+    void tc87_borrowAnyCopyOfIsbn() {
+        library.addCopies(500, "Dune", "Herbert", 1965, 3);
+        library.addSingleBook(600, "Emma", "Austen", 1815);
+        loginUser("alice");
+        mapper.processLine("borrow 2");
+        resetOutput();
+
+        mapper.processLine("borrow -i 500");
+        mapper.processLine("borrow -i 500");
+        String output = getOutput();
+        assertTrue(output.contains("Book 3 borrowed by alice"));
+        assertTrue(output.contains("Book 1 borrowed by alice"));
+
+        resetOutput();
+        mapper.processLine("borrow -i 500");
+        assertEquals("No copy of ISBN 500 is available.", getOutput().trim());
+        assertEquals("No copy of ISBN 500 is available.", mapper.getLastError());
+
+        mapper.processLine("return 2");
+        mapper.processLine("logout");
+        loginUser("admin");
+        mapper.processLine("remove 2");
+        mapper.processLine("logout");
+        loginUser("alice");
+        resetOutput();
+        mapper.processLine("borrow -i 500");
+        assertEquals("No copy of ISBN 500 is available.", getOutput().trim());
+
+        resetOutput();
+        mapper.processLine("borrow -i abc");
+        mapper.processLine("borrow -i");
+        assertTrue(getOutput().contains("Invalid ISBN format in borrow command."));
+        assertTrue(getOutput().contains("Usage: borrow -i [ISBN]"));
+    }
+
+    // TC-88 Verify a returned copy is handed to the first hold and passes on when the hold expires
+    @Test
+    void tc88_holdQueueHandoffAndExpiry() {
+        library.addSingleBook(700, "Dune", "Herbert", 1965);
+        loginUser("alice");
+        mapper.processLine("borrow 1");
+        mapper.processLine("logout");
+
+        loginUser("bob");
+        mapper.processLine("hold 700");
+        mapper.processLine("hold 700");
+        mapper.processLine("hold 999");
+        assertEquals("Hold placed on ISBN 700." + System.lineSeparator()
+                + "You already have a hold on ISBN 700." + System.lineSeparator()
+                + "No book found with ISBN 999.", getOutput().trim());
+        mapper.processLine("logout");
+        loginUser("carol");
+        mapper.processLine("hold 700");
+        mapper.processLine("logout");
+
+        loginUser("alice");
+        mapper.processLine("return 1");
+        assertTrue(getOutput().contains("Book 1 returned." + System.lineSeparator() + "Book 1 is held for bob until"));
+        mapper.processLine("logout");
+
+        loginUser("carol");
+        mapper.processLine("borrow 1");
+        mapper.processLine("borrow -i 700");
+        assertEquals("Book 1 is held for another user." + System.lineSeparator()
+                + "No copy of ISBN 700 is available.", getOutput().trim());
+
+        assertEquals(0, library.expireHolds(System.currentTimeMillis()));
+        assertEquals(1, library.expireHolds(System.currentTimeMillis() + Library.HOLD_PICKUP_MILLIS + 1000));
+        assertEquals("carol", library.getHolder(1).getUsername());
+        resetOutput();
+        mapper.processLine("borrow -i 700");
+        assertTrue(getOutput().contains("Book 1 borrowed by carol"));
+        assertNull(library.getHolder(1));
+
+        mapper.processLine("return 1");
+        mapper.processLine("logout");
+        loginUser("bob");
+        mapper.processLine("hold 700");
+        assertEquals("A copy of ISBN 700 is available.", getOutput().trim());
+    }
+
+    // TC-89 Verify the stats counters follow loans, returns, extensions and removals
+    @Test
+    void tc89_statsCounters() {
+        library.addCopies(100, "Dune", "Herbert", 1965, 3);
+        library.addSingleBook(200, "Emma", "Austen", 1815);
+        loginUser("alice");
+        mapper.processLine("borrow 1-2");
+        mapper.processLine("extend 1");
+        mapper.processLine("logout");
+        loginUser("bob");
+        mapper.processLine("borrow 4");
+        resetOutput();
+
+        mapper.processLine("stats");
+        assertEquals(String.join(System.lineSeparator(),
+                "Copies: 4", "ISBNs: 2", "Borrowed: 3", "Extended: 1", "Overdue: 0"), getOutput().trim());
+        resetOutput();
+        mapper.processLine("stats -u alice");
+        assertEquals("Unauthorized: You can only view your own loans", getOutput().trim());
+        resetOutput();
+        mapper.processLine("stats -u bob");
+        assertEquals("Loans of bob: 1", getOutput().trim());
+
+        long inTenDays = System.currentTimeMillis() + 10L * 24 * 60 * 60 * 1000;
+        assertEquals(2, library.getStats(inTenDays).getOverdue());
+        mapper.processLine("return 4");
+        mapper.processLine("logout");
+        loginUser("admin");
+        mapper.processLine("remove 2");
+        CatalogueStats stats = library.getStats(inTenDays);
+        assertEquals(3, stats.getCopies());
+        assertEquals(1, stats.getBorrowed());
+        assertEquals(1, stats.getExtended());
+        assertEquals(0, stats.getOverdue());
+        resetOutput();
+        mapper.processLine("stats -u alice");
+        assertEquals("Loans of alice: 1", getOutput().trim());
+    }
+
+    // TC-90 Verify loans follow an injected clock and the sweeper marks them overdue as it advances
+    @Test
+    void tc90_injectedClockAndOverdueSweep() {
+        MutableClock clock = new MutableClock(Instant.parse("2024-01-01T10:00:00Z"));
+        library = new Library(clock);
+        mapper = new CommandMapper(library, System.out);
+        library.addCopies(100, "Dune", "Herbert", 1965, 3);
+        loginUser("alice");
+        mapper.processLine("borrow 1");
+        assertTrue(getOutput().contains("until 08/01/2024"));
+        clock.advance(Duration.ofDays(3));
+        mapper.processLine("borrow 2");
+        mapper.processLine("extend 2");
+        assertEquals(0, library.sweepOverdue());
+
+        clock.advance(Duration.ofDays(5));
+        assertEquals(1, library.sweepOverdue());
+        assertEquals(List.of(1), library.getOverdueBooks().stream().map(Book::getID).toList());
+        resetOutput();
+        mapper.processLine("check -b");
+        assertTrue(getOutput().startsWith("1\t100\tDune"));
+
+        mapper.processLine("return 1");
+        clock.advance(Duration.ofDays(60));
+        library.sweep();
+        assertEquals(List.of(2), library.getOverdueBooks().stream().map(Book::getID).toList());
+        assertEquals(1, library.getStats(clock.millis()).getOverdue());
+    }
+
+    /* Clock for simulated time, advanced explicitly by the test */
+    private static final class MutableClock extends Clock {
+        private volatile Instant now;
+
+        MutableClock(Instant start) {
+            this.now = start;
+        }
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+
+    // TC-91 Verify list, search and check pages follow limit, offset and resume cursors
+    @Test
+    void tc91_pagedListingsWithCursors() {
+        library.addCopies(100, "Dune", "Herbert", 1965, 120);
+        library.removeRange(10, 19);
+        loginUser("alice");
+
+        List<String> seen = new ArrayList<>();
+        String command = "list -limit 50";
+        for (int pages = 0; command != null; pages++) {
+            assertTrue(pages < 3);
+            resetOutput();
+            mapper.processLine(command);
+            command = null;
+            for (String line : getOutput().split(System.lineSeparator())) {
+                if (line.startsWith("Next cursor: ")) {
+                    command = "list -limit 50 -cursor " + line.substring("Next cursor: ".length());
+                } else {
+                    seen.add(line.split("\t")[0]);
+                }
+            }
+        }
+        assertEquals(110, seen.size());
+        assertEquals("1", seen.get(0));
+        assertEquals("20", seen.get(9));
+        assertEquals("120", seen.get(109));
+
+        resetOutput();
+        mapper.processLine("list -offset 100 -limit 50");
+        assertEquals(10, getOutput().trim().split(System.lineSeparator()).length);
+        assertTrue(getOutput().startsWith("111\tDune"));
+
+        resetOutput();
+        mapper.processLine("search -t Dune -offset 8 -limit 2");
+        assertEquals("9\t100\tDune\tHerbert\t1965" + System.lineSeparator()
+                + "20\t100\tDune\tHerbert\t1965" + System.lineSeparator()
+                + "Next cursor: " + BookPage.encodeCursor(21), getOutput().trim());
+
+        mapper.processLine("borrow 5 7 9");
+        resetOutput();
+        mapper.processLine("check -limit 2 -cursor " + BookPage.encodeCursor(6));
+        String[] lines = getOutput().trim().split(System.lineSeparator());
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].startsWith("7\t100"));
+        assertTrue(lines[1].startsWith("9\t100"));
+
+        resetOutput();
+        mapper.processLine("list -cursor x1");
+        mapper.processLine("list -limit 0");
+        assertEquals("Invalid cursor: x1" + System.lineSeparator() + "Invalid limit: 0", getOutput().trim());
+    }
+
+    // TC-92 Verify a partitioned library pages across partition boundaries like a single one
+    @Test
+    void tc92_partitionedPagesMatchSingleLibrary() {
+        PartitionedLibrary partitioned = new PartitionedLibrary(4, 50);
+        for (int k = 0; k < 4; k++) {
+            for (int c = 0; c < 30; c++) {
+                partitioned.addSingleBookToPartition(k, 100 + c % 3, "T" + c % 3, "A", 2000);
+            }
+        }
+        List<Integer> all = partitioned.getAllBooks().stream().map(Book::getID).toList();
+        SearchQuery query = new SearchQuery("T1", null, null, MatchMode.EXACT, false);
+        List<Integer> matches = partitioned.search(query).stream().map(Book::getID).toList();
+
+        for (int offset : new int[] { 0, 25, 30, 61, 119, 120 }) {
+            BookPage page = partitioned.findPage(null, 0, offset, 7);
+            assertEquals(all.subList(Math.min(offset, 120), Math.min(offset + 7, 120)),
+                    page.getBooks().stream().map(Book::getID).toList());
+        }
+        BookPage fromCursor = partitioned.findPage(null, 45, 3, 10);
+        assertEquals(List.of(54, 55, 56, 57, 58, 59, 60, 61, 62, 63),
+                fromCursor.getBooks().stream().map(Book::getID).toList());
+
+        List<Integer> paged = new ArrayList<>();
+        int fromId = 0;
+        BookPage page;
+        do {
+            page = partitioned.searchPage(query, fromId, 0, 4);
+            page.getBooks().forEach(b -> paged.add(b.getID()));
+            fromId = page.hasNext() ? BookPage.decodeCursor(page.getNextCursor()) : -1;
+        } while (page.hasNext());
+        assertEquals(matches, paged);
+    }
+
+    // TC-93 Verify list and search stream in title, author, year and due order and resume sorted cursors
+    @Test
+    void tc93_sortedListingsFromOrderedIndexes() {
+        library.addSingleBook(1, "dune", "Herbert", 1965);
+        library.addSingleBook(2, "Emma", "Austen", 1815);
+        library.addSingleBook(3, "Beloved", "Morrison", 1987);
+        library.addCopies(4, "Carrie", "King", 1974, 2);
+        library.removeBook(4);
+        loginUser("alice");
+
+        mapper.processLine("list -sort title");
+        assertEquals(List.of("3", "5", "1", "2"), firstColumn(getOutput()));
+
+        resetOutput();
+        mapper.processLine("search -d 1987 -sort year");
+        mapper.processLine("list -sort author -limit 2");
+        String[] lines = getOutput().trim().split(System.lineSeparator());
+        assertEquals("3\t3\tBeloved\tMorrison\t1987", lines[0]);
+        assertEquals("2\tEmma\tAusten\t1815", lines[1]);
+        assertEquals("1\tdune\tHerbert\t1965", lines[2]);
+        assertTrue(lines[3].startsWith("Next cursor: s"));
+
+        resetOutput();
+        mapper.processLine("list -sort author -cursor " + lines[3].substring("Next cursor: ".length()));
+        assertEquals(List.of("5", "3"), firstColumn(getOutput()));
+
+        mapper.processLine("borrow 3 1");
+        mapper.processLine("extend 1");
+        resetOutput();
+        mapper.processLine("list -sort due");
+        assertEquals(List.of("3", "1"), firstColumn(getOutput()));
+
+        mapper.processLine("return 3");
+        resetOutput();
+        mapper.processLine("list -sort due");
+        mapper.processLine("list -sort isbn");
+        mapper.processLine("list -sort year -cursor " + BookPage.encodeCursor(2));
+        assertEquals("1\tdune\tHerbert\t1965" + System.lineSeparator()
+                + "Invalid sort order: isbn" + System.lineSeparator()
+                + "Invalid cursor: " + BookPage.encodeCursor(2), getOutput().trim());
+
+        PartitionedLibrary partitioned = new PartitionedLibrary(3, 20);
+        for (int k = 0; k < 3; k++) {
+            for (int c = 0; c < 10; c++) {
+                partitioned.addSingleBookToPartition(k, c, "T" + c, "A", 2000 + (c * 7 + k) % 5);
+            }
+        }
+        List<Integer> expected = partitioned.getAllBooks().stream()
+                .sorted(Comparator.comparingInt(Book::getYearPublished).thenComparingInt(Book::getID))
+                .map(Book::getID).toList();
+        List<Integer> paged = new ArrayList<>();
+        String cursor = null;
+        do {
+            BookPage page = partitioned.findSortedPage(SortOrder.YEAR, null, cursor, 0, 4);
+            page.getBooks().forEach(b -> paged.add(b.getID()));
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        assertEquals(expected, paged);
+    }
+
+    private static List<String> firstColumn(String output) {
+        List<String> ids = new ArrayList<>();
+        for (String line : output.trim().split(System.lineSeparator())) {
+            ids.add(line.split("\t")[0]);
+        }
+        return ids;
+    }
+
+    // TC-94 Verify repeated searches hit the cache and adds or removes invalidate only affected results
+    @Test
+    void tc94_searchCacheInvalidatesAffectedResults() {
+        library.addCopies(1, "Dune", "Herbert", 1965, 3);
+        library.addSingleBook(2, "Emma", "Austen", 1815);
+        SearchQuery dune = new SearchQuery("dune", null, null, MatchMode.EXACT, true);
+        SearchQuery byAuthor = new SearchQuery(null, "Austen", null, MatchMode.EXACT, false);
+        SearchQuery prefix = new SearchQuery("E", null, null, MatchMode.PREFIX, false);
+
+        assertEquals(3, library.search(dune).size());
+        assertEquals(1, library.search(byAuthor).size());
+        assertEquals(1, library.search(prefix).size());
+        assertEquals(3, library.search(dune).size());
+        assertEquals(1, library.getSearchCacheStats().getHits());
+        assertEquals(3, library.getSearchCacheStats().getMisses());
+
+        // A new Austen title leaves the Dune result current
+        library.addSingleBook(3, "Persuasion", "Austen", 1817);
+        assertEquals(3, library.search(dune).size());
+        assertEquals(2, library.search(byAuthor).size());
+        assertEquals(1, library.search(prefix).size());
+        assertEquals(2, library.getSearchCacheStats().getHits());
+        assertEquals(5, library.getSearchCacheStats().getMisses());
+
+        library.removeBook(4);
+        assertTrue(library.search(byAuthor).stream().allMatch(b -> b.getID() == 5));
+        assertTrue(library.search(prefix).isEmpty());
+        assertEquals(3, library.search(dune).size());
+        assertEquals(3, library.getSearchCacheStats().getHits());
+
+        for (int i = 0; i < 300; i++) {
+            library.search(new SearchQuery(null, null, 1900 + i, MatchMode.EXACT, false));
+        }
+        assertTrue(library.getSearchCacheStats().getEvictions() > 0);
+
+        loginUser("alice");
+        resetOutput();
+        mapper.processLine("search -t Dune");
+        mapper.processLine("search -t Dune");
+        mapper.processLine("stats -cache");
+        String output = getOutput();
+        assertTrue(output.contains("Search cache hits: 4"));
+        assertTrue(output.contains("Search cache entries: 256"));
+    }
+
+    // TC-95 Verify catalogue rows are rendered once per book and match across storage backends
+    @Test
+    void tc95_catalogueRowsRenderedOnce() {
+        for (Library lib : new Library[] { library, new Library(new ColumnarBookStore(1)),
+                new Library(new OffHeapBookStore(1)) }) {
+            lib.addSingleBook(1, "Dune", "Herbert", 1965);
+            lib.addCopies(2, "Élan vital", "Bergson", -50, 5000);
+            assertEquals("1\tDune\tHerbert\t1965", lib.getBookById(1).getCatalogueRow());
+            assertEquals("4200\tÉlan vital\tBergson\t-50", lib.getBookById(4200).getCatalogueRow());
+            ByteArrayOutputStream rendered = new ByteArrayOutputStream();
+            PrintStream stream = new PrintStream(rendered, true, StandardCharsets.UTF_8);
+            lib.getBookById(4200).writeCatalogueRow(stream);
+            lib.getBookById(1).writeCatalogueRow(stream);
+            assertEquals("4200\tÉlan vital\tBergson\t-501\tDune\tHerbert\t1965",
+                    rendered.toString(StandardCharsets.UTF_8));
+        }
+
+        library.getBookById(1).borrow(new Domain.User("Alice"));
+        loginUser("admin");
+        resetOutput();
+        mapper.processLine("list -limit 2");
+        String[] lines = getOutput().trim().split(System.lineSeparator());
+        assertTrue(lines[0].startsWith("1\tDune\tHerbert\t1965\tAlice\t"));
+        assertTrue(lines[1].startsWith("2\t") && lines[1].endsWith("\tBergson\t-50"));
+
+        // A stream in another charset gets the row encoded by the stream itself
+        ByteArrayOutputStream latin1 = new ByteArrayOutputStream();
+        PrintStream latin1Out = new PrintStream(latin1, true, StandardCharsets.ISO_8859_1);
+        CommandMapper latin1Mapper = new CommandMapper(library, latin1Out);
+        latin1Mapper.processLine("list -offset 1 -limit 1");
+        assertEquals("2\tÉlan vital\tBergson\t-50", latin1.toString(StandardCharsets.ISO_8859_1).split("\\R")[0]);
+    }
+
+    // TC-96 Verify Bloom filters rule out absent titles, authors and ISBNs and follow removals and rebuilds
+    @Test
+    void tc96_bloomFiltersRuleOutAbsentKeys() {
+        SearchQuery dune = new SearchQuery("DUNE", null, null, MatchMode.EXACT, true);
+        SearchQuery herbert = new SearchQuery(null, "Herbert", null, MatchMode.EXACT, false);
+        SearchQuery prefix = new SearchQuery("Zz", null, null, MatchMode.PREFIX, false);
+        assertFalse(library.mayMatch(dune));
+        assertFalse(library.mayHaveIsbn(100));
+        assertTrue(library.mayMatch(prefix));
+
+        int first = library.addCopies(100, "Dune", "Herbert", 1965, 2);
+        assertTrue(library.mayMatch(dune));
+        assertTrue(library.mayMatch(herbert));
+        assertTrue(library.mayHaveIsbn(100));
+        int absent = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (!library.mayMatch(new SearchQuery("Title " + i, null, null, MatchMode.EXACT, false))) {
+                absent++;
+            }
+        }
+        assertTrue(absent > 950);
+
+        library.removeBook(first);
+        assertTrue(library.mayHaveIsbn(100));
+        library.removeBook(first + 1);
+        assertFalse(library.mayMatch(dune));
+        assertFalse(library.mayHaveIsbn(100));
+
+        for (int i = 0; i < 3000; i++) {
+            library.addSingleBook(1000 + i, "T" + i, "A" + i, 2000);
+        }
+        library.rebuildFilters(4096);
+        for (int i = 0; i < 3000; i += 100) {
+            assertTrue(library.mayHaveIsbn(1000 + i));
+            assertEquals(1, library.search(new SearchQuery("T" + i, null, null, MatchMode.EXACT, false)).size());
+        }
+
+        PartitionedLibrary partitioned = new PartitionedLibrary(4, 100);
+        partitioned.addSingleBookToPartition(3, 7, "Emma", "Austen", 1815);
+        assertTrue(partitioned.mayHaveIsbn(7));
+        assertTrue(partitioned.mayMatch(new SearchQuery("Emma", null, null, MatchMode.EXACT, false)));
+        CommandMapper partitionedMapper = new CommandMapper(partitioned, System.out);
+        partitionedMapper.processLine("log alice");
+        resetOutput();
+        partitionedMapper.processLine("borrow -i 7");
+        partitionedMapper.processLine("search -t Persuasion -sort title");
+        assertTrue(getOutput().contains("No books match the given search filters."));
+        assertFalse(partitioned.getBookById(301).isAvailable());
+    }
+
+    // TC-97 Verify begin/commit applies buffered loans all or none and journals one record per commit
+    @Test
+    void tc97_transactionsCommitAtomically() throws Exception {
+        library.addCopies(1, "Dune", "Herbert", 1965, 4);
+        Path journal = Files.createTempFile("library", ".journal");
+        try (CommitLog log = new CommitLog(journal)) {
+            library.setCommitLog(log);
+            loginUser("alice");
+
+            mapper.processLine("begin");
+            mapper.processLine("borrow 1-3");
+            mapper.processLine("return 1");
+            mapper.processLine("extend 2");
+            assertTrue(library.getBookById(1).isAvailable());
+            resetOutput();
+            mapper.processLine("commit");
+            String[] lines = getOutput().trim().split(System.lineSeparator());
+            assertEquals(6, lines.length);
+            assertTrue(lines[0].startsWith("Book 1 borrowed by alice until "));
+            assertEquals("Book 1 returned.", lines[3]);
+            assertTrue(lines[4].startsWith("Book 2: Loan extended."));
+            assertEquals("Transaction committed.", lines[5]);
+            assertTrue(library.getBookById(1).isAvailable());
+            assertTrue(library.getBookById(2).isExceeded());
+            assertFalse(library.getBookById(3).isAvailable());
+
+            mapper.processLine("begin");
+            mapper.processLine("borrow 4");
+            mapper.processLine("extend 2");
+            mapper.processLine("add -t Emma -a Austen -d 1815 -i 2");
+            resetOutput();
+            mapper.processLine("commit");
+            assertEquals("Book 4 skipped: batch aborted." + System.lineSeparator()
+                    + "Book 2: Extension limit reached" + System.lineSeparator()
+                    + "Transaction aborted: no books were changed.", getOutput().trim());
+            assertEquals("Book 2: Extension limit reached", mapper.getLastError());
+            assertTrue(library.getBookById(4).isAvailable());
+
+            mapper.processLine("begin");
+            mapper.processLine("borrow 4");
+            resetOutput();
+            mapper.processLine("abort");
+            mapper.processLine("commit");
+            assertEquals("Transaction aborted." + System.lineSeparator() + "No transaction is open.",
+                    getOutput().trim());
+            assertEquals(1, log.getRecordCount());
+        }
+        List<String> records = Files.readAllLines(journal);
+        assertEquals(1, records.size());
+        assertTrue(records.get(0).startsWith("1\t"));
+        assertTrue(records.get(0).endsWith("\talice\tborrow 1,borrow 2,borrow 3,return 1,extend 2"));
+        assertEquals(1, new CommitLog(journal).getRecordCount());
+        Files.delete(journal);
+
+        PartitionedLibrary partitioned = new PartitionedLibrary(2, 10);
+        partitioned.addSingleBookToPartition(0, 1, "A", "X", 2000);
+        partitioned.addSingleBookToPartition(1, 2, "B", "Y", 2000);
+        partitioned.setCurrentUser(new Domain.User("bob"));
+        Transaction transaction = new Transaction();
+        transaction.borrow(1, 11);
+        transaction.returnBooks(11);
+        transaction.borrow(11);
+        assertArrayEquals(new LoanResult[] { LoanResult.OK, LoanResult.OK, LoanResult.OK, LoanResult.OK },
+                partitioned.commitTransaction(transaction));
+        assertFalse(partitioned.getBookById(1).isAvailable());
+        assertFalse(partitioned.getBookById(11).isAvailable());
+
+        String script = "log alice\nbegin\nborrow 1\nborrow 2\nreturn 1\ncommit\nborrow 3\nbegin\nborrow 4\nlogout\n";
+        Library sequentialLibrary = new Library();
+        sequentialLibrary.addCopies(1, "Dune", "Herbert", 1965, 4);
+        ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+        CommandMapper single = new CommandMapper(sequentialLibrary, new PrintStream(sequential, true));
+        for (String line : script.split("\n")) {
+            single.processLine(line);
+        }
+        Library parallelLibrary = new Library();
+        parallelLibrary.addCopies(1, "Dune", "Herbert", 1965, 4);
+        ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+        ParallelScriptRunner runner = new ParallelScriptRunner(4, null);
+        try (PrintStream ps = new PrintStream(parallel, true)) {
+            runner.run(parallelLibrary, new BufferedReader(new StringReader(script)), ps);
+        } finally {
+            runner.shutdown();
+        }
+        assertEquals(sequential.toString(), parallel.toString());
+        assertTrue(parallelLibrary.getBookById(4).isAvailable());
+    }
+
+    // TC-98 Verify the loan history answers per-user and per-book queries across day segments
+    @Test
+    void tc98_loanHistoryPerUserAndBook() {
+        MutableClock clock = new MutableClock(Instant.parse("2024-03-01T12:00:00Z"));
+        library = new Library(clock);
+        mapper = new CommandMapper(library, System.out);
+        library.addCopies(1, "Dune", "Herbert", 1965, 3);
+
+        loginUser("alice");
+        mapper.processLine("borrow 2 1");
+        clock.advance(Duration.ofDays(1));
+        mapper.processLine("extend 1");
+        mapper.processLine("return 2");
+        mapper.processLine("logout");
+        loginUser("bob");
+        clock.advance(Duration.ofDays(40));
+        mapper.processLine("borrow 2");
+        library.removeBook(2);
+
+        resetOutput();
+        mapper.processLine("history -u alice");
+        mapper.processLine("history -u bob");
+        mapper.processLine("history -b 2");
+        mapper.processLine("history -u carol");
+        assertEquals(String.join(System.lineSeparator(),
+                "Unauthorized: You can only view your own history",
+                "11/04/2024\tborrow\t2\tbob",
+                "User not authorized",
+                "Unauthorized: You can only view your own history"), getOutput().trim());
+
+        mapper.processLine("logout");
+        loginUser("admin");
+        mapper.processLine("history -u alice");
+        mapper.processLine("history -b 2");
+        mapper.processLine("history -u carol");
+        mapper.processLine("history -b x");
+        assertEquals(String.join(System.lineSeparator(),
+                "01/03/2024\tborrow\t2\talice",
+                "01/03/2024\tborrow\t1\talice",
+                "02/03/2024\textend\t1\talice",
+                "02/03/2024\treturn\t2\talice",
+                "01/03/2024\tborrow\t2\talice",
+                "02/03/2024\treturn\t2\talice",
+                "11/04/2024\tborrow\t2\tbob",
+                "No loan history found.",
+                "Invalid ID format in history command."), getOutput().trim());
+
+        List<LoanEvent> events = library.getUserHistory(library.getUsers().find("alice").getUserId());
+        assertEquals(List.of(2, 1, 1, 2), events.stream().map(LoanEvent::getBookId).toList());
+
+        // Enough records to fill several segments within one day
+        library.setCurrentUser(new Domain.User("carol"));
+        for (int i = 0; i < 12000; i++) {
+            library.borrowBook(3);
+            library.returnBook(3);
+            clock.advance(Duration.ofSeconds(1));
+        }
+        List<LoanEvent> book3 = library.getBookHistory(3);
+        assertEquals(24000, book3.size());
+        assertEquals("return", book3.get(23999).getOperation());
+        assertEquals(book3.get(0).getTime() + 11999 * 1000L, book3.get(23999).getTime());
+        assertEquals(24000, library.getUserHistory(library.getUsers().find("carol").getUserId()).size());
+    }
+
+    // TC-99 Verify import adds a CSV catalogue in file order, parsed in chunks, and reports bad rows at the end
+    @Test
+    void tc99_importCsvCatalogue() throws Exception {
+        Path file = Files.createTempFile("catalogue", ".csv");
+        try {
+            Files.writeString(file, String.join("\r\n",
+                    "isbn,title,author,year,copies",
+                    "1,Dune,Herbert,1965,2",
+                    "2,\"War, and Peace\",Tolstoy,1869",
+                    "",
+                    "x,Bad,Nobody,2000",
+                    "3,\"Say \"\"Hi\"\"\",Someone,2001,1",
+                    "4,Short,Row",
+                    "5,Emma,Austen,1815,0",
+                    "6,Ulysses,Joyce,1922,3") + "\n");
+
+            loginUser("alice");
+            mapper.processLine("import " + file);
+            assertEquals("User not authorized", getOutput());
+
+            mapper.processLine("logout");
+            loginUser("admin");
+            mapper.processLine("import " + file);
+            assertEquals(String.join("\n",
+                    "Imported 7 books from 4 rows.",
+                    "Line 5: Invalid ISBN: x",
+                    "Line 7: Expected 4 or 5 fields but found 3",
+                    "Line 8: Invalid copies number: 0"), getOutput());
+            assertEquals(List.of("Dune", "Dune", "War, and Peace", "Say \"Hi\"", "Ulysses", "Ulysses", "Ulysses"),
+                    library.getAllBooks().stream().map(Book::getTitle).toList());
+            assertEquals(List.of(1, 2, 3, 4, 5, 6, 7),
+                    library.getAllBooks().stream().map(Book::getID).toList());
+
+            resetOutput();
+            mapper.processLine("import " + file + ".missing");
+            assertEquals("Cannot read file: " + file + ".missing", getOutput());
+
+            // Tiny chunks must give the same books as adding the rows one by one
+            Library chunked = new Library();
+            CsvImporter.Result result = new CsvImporter(16).importFile(chunked, file);
+            assertEquals(1, result.getFirstId());
+            assertEquals(3, result.getErrors().size());
+            Library sequential = new Library();
+            sequential.addCopies(1, "Dune", "Herbert", 1965, 2);
+            sequential.addSingleBook(2, "War, and Peace", "Tolstoy", 1869);
+            sequential.addSingleBook(3, "Say \"Hi\"", "Someone", 2001);
+            sequential.addCopies(6, "Ulysses", "Joyce", 1922, 3);
+            Function<Library, List<String>> rows = lib -> lib.getAllBooks().stream()
+                    .map(b -> b.getID() + "|" + b.getISBN() + "|" + b.getTitle() + "|" + b.getAuthor() + "|"
+                            + b.getYearPublished())
+                    .toList();
+            assertEquals(rows.apply(sequential), rows.apply(chunked));
+            assertEquals(3, chunked.search(new SearchQuery(null, "Joyce", null, MatchMode.EXACT, false)).size());
+            assertTrue(chunked.mayHaveIsbn(6));
+
+            // A partitioned library sends each title to the partition of its ISBN
+            PartitionedLibrary partitioned = new PartitionedLibrary(3, 100);
+            result = new CsvImporter(32).importFile(partitioned, file);
+            assertEquals(7, result.getBooks());
+            assertEquals(7, partitioned.getAllBooks().size());
+            assertEquals("Dune", partitioned.getBookById(result.getFirstId()).getTitle());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // TC-100 Verify removing a range of books drops them from the title and author indexes in bulk
+    @Test
+    void tc100_removeRangeUpdatesTextIndexes() {
+        library.addCopies(1, "Dune", "Herbert", 1965, 3);
+        library.addCopies(2, "Emma", "Austen", 1815, 3);
+        library.addCopies(3, "Dubliners", "Joyce", 1914, 3);
+
+        assertArrayEquals(new int[] {3, 4, 5, 6, 7}, library.removeRange(3, 7));
+        assertEquals(List.of(1, 2, 8, 9), library.search(new SearchQuery("du", null, null, MatchMode.PREFIX, true))
+                .stream().map(Book::getID).toList());
+        assertEquals(List.of(), library.search(new SearchQuery("mm", null, null, MatchMode.SUBSTRING, true)));
+        assertEquals(List.of(1, 2, 8, 9), library.search(new SearchQuery("", null, null, MatchMode.PREFIX, false))
+                .stream().map(Book::getID).toList());
+        assertEquals(List.of(8, 9), library.search(new SearchQuery(null, "joyce", null, MatchMode.EXACT, true))
+                .stream().map(Book::getID).toList());
+    }
+
+    // TC-101 Verify list and check read each loan once while another thread borrows and returns
+    @Test
+    void tc101_listAndCheckDuringConcurrentReturns() throws Exception {
+        for (Library lib : List.of(new Library(), new Library(new ColumnarBookStore(1)),
+                new Library(new OffHeapBookStore(1)))) {
+            library = lib;
+            mapper = new CommandMapper(library, System.out);
+            library.addCopies(1, "Dune", "Herbert", 1965, 4);
+            loginUser("admin");
+
+            Domain.User alice = new Domain.User("alice");
+            AtomicBoolean done = new AtomicBoolean();
+            Thread writer = new Thread(() -> {
+                while (!done.get()) {
+                    for (Book b : library.getAllBooks()) {
+                        b.borrow(alice, 0L);
+                        b.extendLoan();
+                        b.returnBook();
+                    }
+                }
+            });
+            writer.start();
+            try {
+                for (int i = 0; i < 500; i++) {
+                    mapper.processLine("list");
+                    assertNull(mapper.getLastError());
+                    mapper.processLine("check");
+                    assertNull(mapper.getLastError());
+                    Domain.Loan loan = library.getBookById(1).getLoan();
+                    assertTrue(loan == null || loan.getBorrower().getUsername().equals("alice"));
+                }
+            } finally {
+                done.set(true);
+                writer.join();
+            }
+            resetOutput();
+        }
+    }
+
+    // TC-102 Verify returns stay in script order once copies are borrowed by ISBN
+    @Test
+    void tc102_parallelReturnsKeepCopyOrderForBorrowByIsbn() throws Exception {
+        StringBuilder script = new StringBuilder("log admin\nadd -t T -a A -d 2000 -i 1 -n 300\nlogout\nlog alice\n");
+        for (int i = 0; i < 300; i++) {
+            script.append("borrow -i 1\n");
+        }
+        for (int id = 1; id <= 300; id++) {
+            script.append("return ").append(id).append('\n');
+        }
+        for (int i = 0; i < 5; i++) {
+            script.append("borrow -i 1\n");
+        }
+
+        ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+        CommandMapper single = new CommandMapper(new Library(), new PrintStream(sequential, true));
+        for (String line : script.toString().split("\n")) {
+            single.processLine(line);
+        }
+
+        ParallelScriptRunner runner = new ParallelScriptRunner(4, null);
+        try {
+            for (int run = 0; run < 5; run++) {
+                ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+                try (PrintStream ps = new PrintStream(parallel, true)) {
+                    runner.run(new Library(), new BufferedReader(new StringReader(script.toString())), ps);
+                }
+                assertEquals(sequential.toString(), parallel.toString());
+            }
+        } finally {
+            runner.shutdown();
+        }
+    }
+
+    // TC-103 Verify reservations lapse without a sweep and partitions share the hold waitlists
+    @Test
+    void tc103_holdsExpireLazilyAndSpanPartitions() {
+        MutableClock clock = new MutableClock(Instant.parse("2024-03-01T12:00:00Z"));
+        library = new Library(clock);
+        mapper = new CommandMapper(library, System.out);
+        library.addSingleBook(700, "Dune", "Herbert", 1965);
+        loginUser("alice");
+        mapper.processLine("borrow 1");
+        mapper.processLine("logout");
+        loginUser("bob");
+        mapper.processLine("hold 700");
+        mapper.processLine("logout");
+        loginUser("alice");
+        mapper.processLine("return 1");
+        mapper.processLine("logout");
+
+        // bob never picks the copy up; once the deadline passes carol can borrow it
+        loginUser("carol");
+        clock.advance(Duration.ofDays(4));
+        mapper.processLine("borrow -i 700");
+        assertTrue(getOutput().startsWith("Book 1 borrowed by carol"));
+
+        // A copy added to another partition than the ISBN's home still serves its waitlist
+        PartitionedLibrary partitioned = new PartitionedLibrary(3, 100, clock);
+        int other = (partitioned.partitionForIsbn(800) + 1) % 3;
+        Book copy = partitioned.addSingleBookToPartition(other, 800, "Emma", "Austen", 1815);
+        partitioned.setCurrentUser(new Domain.User("alice"));
+        partitioned.borrowBook(copy.getID());
+        partitioned.setCurrentUser(new Domain.User("bob"));
+        assertEquals(HoldResult.PLACED, partitioned.placeHold(800));
+        assertEquals(HoldResult.ALREADY_HELD, partitioned.placeHold(800));
+        partitioned.setCurrentUser(new Domain.User("alice"));
+        partitioned.returnBook(copy.getID());
+        assertEquals("bob", partitioned.getHolder(copy.getID()).getUsername());
+        assertNull(partitioned.borrowByIsbn(800));
+        partitioned.setCurrentUser(new Domain.User("bob"));
+        assertEquals(copy.getID(), partitioned.borrowByIsbn(800).getID());
+        assertNull(partitioned.getHolder(copy.getID()));
+    }
+
+    // TC-104 Verify check -b pages through the overdue loans and follows loans changed on the book directly
+    @Test
+    void tc104_checkOverdueFromDueDateIndex() {
+        MutableClock clock = new MutableClock(Instant.parse("2024-01-01T10:00:00Z"));
+        library = new Library(clock);
+        mapper = new CommandMapper(library, System.out);
+        library.addCopies(100, "Dune", "Herbert", 1965, 4);
+        loginUser("alice");
+        mapper.processLine("borrow 1");
+        mapper.processLine("borrow 2");
+        mapper.processLine("borrow 3");
+        clock.advance(Duration.ofDays(2));
+        mapper.processLine("borrow 4");
+        clock.advance(Duration.ofDays(6));
+
+        resetOutput();
+        mapper.processLine("check -b -limit 2");
+        String[] lines = getOutput().split("\n");
+        assertEquals(3, lines.length);
+        assertTrue(lines[0].startsWith("1\t100\tDune"));
+        assertTrue(lines[1].startsWith("2\t100\tDune"));
+        resetOutput();
+        mapper.processLine("check -b -limit 2 " + lines[2].replace("Next cursor: ", "-cursor "));
+        assertTrue(getOutput().startsWith("3\t100\tDune"));
+        assertFalse(getOutput().contains("4\t100"));
+
+        // Returned on the book itself rather than through the library
+        library.getBookById(2).returnBook();
+        resetOutput();
+        mapper.processLine("check -b");
+        assertEquals(2, getOutput().split("\n").length);
+        assertEquals(2, library.getStats(clock.millis()).getOverdue());
+        assertEquals(3, library.getStats(clock.millis()).getBorrowed());
+    }
+
+    // TC-105 Verify sorted search pages resume from their cursors and sort indexes follow books added after the first listing
+    @Test
+    void tc105_sortedSearchPagesAndLazySortIndexes() {
+        for (int i = 0; i < 50; i++) {
+            library.addSingleBook(i, i % 10 == 0 ? "Dune " + i : "Other " + i, "Author " + (49 - i), 1950 + i % 7);
+        }
+        loginUser("alice");
+        mapper.processLine("list -sort author -limit 1");
+        assertEquals("50", firstColumn(getOutput()).get(0));
+        library.addSingleBook(50, "Dune 50", "Author 00", 1950);
+
+        List<String> paged = new ArrayList<>();
+        String command = "search -t Dune -m prefix -sort year -limit 2";
+        while (command != null) {
+            resetOutput();
+            mapper.processLine(command);
+            command = null;
+            for (String line : getOutput().split(System.lineSeparator())) {
+                if (line.startsWith("Next cursor: ")) {
+                    command = "search -t Dune -m prefix -sort year -limit 2 -cursor " + line.substring("Next cursor: ".length());
+                } else {
+                    paged.add(line.split("\t")[0]);
+                }
+            }
+        }
+        assertEquals(List.of("1", "51", "31", "11", "41", "21"), paged);
+
+        resetOutput();
+        mapper.processLine("list -sort author -limit 2");
+        List<String> ids = firstColumn(getOutput());
+        assertEquals(List.of("50", "51"), ids.subList(0, 2));
+        assertTrue(ids.get(2).startsWith("Next cursor: s"));
+    }
+
+    // TC-106 Verify commit reports each operation as it was applied and a reopened journal continues its sequence
+    @Test
+    void tc106_commitMessagesPerOperationAndJournalReopen() throws Exception {
+        MutableClock clock = new MutableClock(Instant.parse("2024-01-01T10:00:00Z"));
+        library = new Library(clock);
+        mapper = new CommandMapper(library, System.out);
+        library.addCopies(1, "Dune", "Herbert", 1965, 2);
+        Path journal = Files.createTempFile("library", ".journal");
+        try (CommitLog log = new CommitLog(journal)) {
+            library.setCommitLog(log);
+            loginUser("alice");
+            mapper.processLine("begin");
+            mapper.processLine("borrow 1");
+            mapper.processLine("extend 1");
+            mapper.processLine("return 1");
+            mapper.processLine("borrow 2");
+            resetOutput();
+            mapper.processLine("commit");
+            assertEquals("Book 1 borrowed by alice until 08/01/2024." + System.lineSeparator()
+                    + "Book 1: Loan extended. New limit date: 15/01/2024" + System.lineSeparator()
+                    + "Book 1 returned." + System.lineSeparator()
+                    + "Book 2 borrowed by alice until 08/01/2024." + System.lineSeparator()
+                    + "Transaction committed.", getOutput());
+
+            mapper.processLine("begin");
+            mapper.processLine("return 2");
+            mapper.processLine("commit");
+        }
+        // A record torn by a crash is not counted
+        Files.writeString(journal, "3\t170", java.nio.file.StandardOpenOption.APPEND);
+        try (CommitLog log = new CommitLog(journal)) {
+            assertEquals(2, log.getRecordCount());
+        }
+        Files.delete(journal);
+    }
+
+    // TC-107 Verify history -u lists loans in the order applied, also after a parallel run
+    @Test
+    void tc107_userHistoryChronologicalInParallelRuns() throws Exception {
+        StringBuilder script = new StringBuilder("log alice\n");
+        for (int i = 300; i >= 1; i--) {
+            script.append("borrow ").append(i).append('\n');
+        }
+        script.append("list\nreturn 7\nextend 3\nhistory -u alice\nborrow 7\nreturn 1\n");
+
+        Library sequentialLibrary = new Library();
+        sequentialLibrary.addCopies(1, "Dune", "Herbert", 1965, 300);
+        ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+        CommandMapper single = new CommandMapper(sequentialLibrary, new PrintStream(sequential, true));
+        for (String line : script.toString().split("\n")) {
+            single.processLine(line);
+        }
+        String[] history = sequential.toString().split(System.lineSeparator());
+        // 302 history lines, then the last borrow and return
+        int first = history.length - 304;
+        assertTrue(history[first].endsWith("\tborrow\t300\talice"));
+        assertTrue(history[first + 299].endsWith("\tborrow\t1\talice"));
+        assertTrue(history[first + 300].endsWith("\treturn\t7\talice"));
+        assertTrue(history[first + 301].endsWith("\textend\t3\talice"));
+
+        ParallelScriptRunner runner = new ParallelScriptRunner(4, null);
+        try {
+            for (int run = 0; run < 5; run++) {
+                Library parallelLibrary = new Library();
+                parallelLibrary.addCopies(1, "Dune", "Herbert", 1965, 300);
+                ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+                try (PrintStream ps = new PrintStream(parallel, true)) {
+                    runner.run(parallelLibrary, new BufferedReader(new StringReader(script.toString())), ps);
+                }
+                assertEquals(sequential.toString(), parallel.toString());
+            }
+        } finally {
+            runner.shutdown();
+        }
+    }
+
+    // TC-108 Verify a partitioned import that does not fit one partition imports nothing
+    @Test
+    void tc108_partitionedImportAllOrNothing() throws Exception {
+        PartitionedLibrary partitioned = new PartitionedLibrary(2, 10);
+        CommandMapper partitionedMapper = new CommandMapper(partitioned, System.out);
+        partitionedMapper.processLine("log admin");
+        Path file = Files.createTempFile("catalogue", ".csv");
+        StringBuilder csv = new StringBuilder();
+        for (int isbn = 1; isbn <= 40; isbn++) {
+            csv.append(isbn).append(",Title ").append(isbn).append(",Author,2000,1\n");
+        }
+        Files.writeString(file, csv);
+        resetOutput();
+        partitionedMapper.processLine("import " + file);
+        assertEquals("Import failed, no books were imported: No free book IDs left in this library", getOutput());
+        assertEquals(0, partitioned.getAllBooks().size());
+
+        Files.writeString(file, csv.substring(0, csv.indexOf("11,")));
+        resetOutput();
+        partitionedMapper.processLine("import " + file);
+        assertEquals("Imported 10 books from 10 rows.", getOutput());
+        assertEquals(10, partitioned.getAllBooks().size());
+        Files.delete(file);
+    }
+
+    // TC-109 Verify the background sweeper marks overdue loans and ends lapsed holds as the clock advances
+    @Test
+    void tc109_scheduledSweeper() throws Exception {
+        MutableClock clock = new MutableClock(Instant.parse("2024-01-01T10:00:00Z"));
+        library = new Library(clock);
+        mapper = new CommandMapper(library, System.out);
+        library.addCopies(700, "Dune", "Herbert", 1965, 2);
+        loginUser("alice");
+        mapper.processLine("borrow 1-2");
+        mapper.processLine("logout");
+        loginUser("bob");
+        mapper.processLine("hold 700");
+        mapper.processLine("logout");
+        loginUser("alice");
+        mapper.processLine("return 1");
+        assertEquals("bob", library.getHolder(1).getUsername());
+
+        clock.advance(Duration.ofDays(8));
+        assertEquals("bob", library.getHolder(1).getUsername());
+        assertEquals(List.of(), library.getOverdueBooks());
+        try (LibrarySweeper sweeper = new LibrarySweeper(library, 10, TimeUnit.MILLISECONDS)) {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while ((library.getHolder(1) != null || library.getOverdueBooks().isEmpty())
+                    && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+        }
+        assertNull(library.getHolder(1));
+        assertEquals(List.of(2), library.getOverdueBooks().stream().map(Book::getID).toList());
+    }
+
+    // TC-110 Verify check sorts and pages the borrowed and the overdue loans, also across partitions
+    @Test
+    void tc110_checkSortedOverdue() {
+        MutableClock clock = new MutableClock(Instant.parse("2024-01-01T10:00:00Z"));
+        PartitionedLibrary partitioned = new PartitionedLibrary(3, 10, clock);
+        for (Library lib : List.of(new Library(clock), partitioned)) {
+            library = lib;
+            mapper = new CommandMapper(library, System.out);
+            library.addSingleBook(1, "Ulysses", "Joyce", 1922);
+            library.addSingleBook(2, "Dune", "Herbert", 1965);
+            library.addSingleBook(3, "Emma", "Austen", 1815);
+            library.addSingleBook(4, "Beloved", "Morrison", 1987);
+            loginUser("alice");
+            for (int isbn = 1; isbn <= 4; isbn++) {
+                mapper.processLine("borrow -i " + isbn);
+                clock.advance(Duration.ofDays(1));
+            }
+            // Due on days 7 to 10, the last one is not overdue yet
+            clock.advance(Duration.ofDays(5).plusHours(1));
+
+            resetOutput();
+            mapper.processLine("check -b -sort due");
+            assertEquals(List.of("Ulysses", "Dune", "Emma"), titles(getOutput()));
+            resetOutput();
+            mapper.processLine("check -b -sort title -limit 2");
+            String[] lines = getOutput().split("\n");
+            assertEquals(List.of("Dune", "Emma"), titles(lines[0] + "\n" + lines[1]));
+            resetOutput();
+            mapper.processLine("check -b -sort title -limit 2 " + lines[2].replace("Next cursor: ", "-cursor "));
+            assertEquals(List.of("Ulysses"), titles(getOutput()));
+            resetOutput();
+            mapper.processLine("check -b -limit 1 -offset 2");
+            assertEquals(List.of("Emma"), titles(getOutput()));
+            resetOutput();
+            mapper.processLine("check -sort title");
+            assertEquals(List.of("Beloved", "Dune", "Emma", "Ulysses"), titles(getOutput()));
+            resetOutput();
+            mapper.processLine("check -b -sort isbn");
+            assertEquals("Invalid sort order: isbn", getOutput());
+        }
+    }
+
+    private static List<String> titles(String output) {
+        List<String> titles = new ArrayList<>();
+        for (String line : output.split("\n")) {
+            titles.add(line.split("\t")[2]);
+        }
+        return titles;
+    }
+
+    // TC-111 Verify partitioned pages gathered from every partition keep offsets, filters and sort order
+    @Test
+    void tc111_partitionedPagesGatherEveryPartition() {
+        PartitionedLibrary partitioned = new PartitionedLibrary(4, 50);
+        for (int k = 0; k < 4; k++) {
+            for (int c = 0; c < 20; c++) {
+                partitioned.addSingleBookToPartition(k, c, "T" + (c * 7 + k) % 13, "A", 2000 + (c + k) % 6);
+            }
+        }
+        Predicate<Book> even = b -> b.getYearPublished() % 2 == 0;
+        List<Integer> filtered = partitioned.getAllBooks().stream().filter(even).map(Book::getID).toList();
+        for (int offset : new int[] { 0, 9, 20, 39, filtered.size() }) {
+            BookPage page = partitioned.findPage(even, 0, offset, 6);
+            int end = Math.min(offset + 6, filtered.size());
+            assertEquals(filtered.subList(offset, end), page.getBooks().stream().map(Book::getID).toList());
+            assertEquals(end < filtered.size() ? BookPage.encodeCursor(filtered.get(end)) : null,
+                    page.getNextCursor());
+        }
+
+        List<Integer> byTitle = partitioned.getAllBooks().stream()
+                .sorted(Comparator.comparing(Book::getTitle).thenComparingInt(Book::getID))
+                .map(Book::getID).toList();
+        for (int offset : new int[] { 0, 13, 50 }) {
+            List<Integer> paged = new ArrayList<>();
+            String cursor = null;
+            do {
+                int skip = cursor == null ? offset : 0;
+                BookPage page = partitioned.findSortedPage(SortOrder.TITLE, null, cursor, skip, 7);
+                page.getBooks().forEach(b -> paged.add(b.getID()));
+                cursor = page.getNextCursor();
+            } while (cursor != null);
+            assertEquals(byTitle.subList(offset, byTitle.size()), paged);
+        }
+
+        SearchQuery query = new SearchQuery("T1", null, null, MatchMode.PREFIX, false);
+        List<Integer> matches = partitioned.search(query).stream()
+                .sorted(Comparator.comparing(Book::getTitle).thenComparingInt(Book::getID))
+                .map(Book::getID).toList();
+        BookPage page = partitioned.searchSortedPage(SortOrder.TITLE, query, null, 3, 5);
+        assertEquals(matches.subList(3, 8), page.getBooks().stream().map(Book::getID).toList());
+    }
+
+    // TC-112 Verify broad sorted searches walk the sort index and selective ones sort their few matches
+    @Test
+    void tc112_sortedSearchWalksIndexUnlessSelective() {
+        for (int i = 0; i < 200; i++) {
+            library.addSingleBook(i, (i % 50 == 0 ? "Dune " : "Other ") + i, "Author", 1950 + i % 7);
+        }
+        Comparator<Book> byTitle = Comparator.comparing((Book b) -> b.getTitle().toLowerCase())
+                .thenComparingInt(Book::getID);
+
+        // Year-only and broad title queries: no match list is built, so the search cache is not consulted
+        List<SearchQuery> queries = List.of(new SearchQuery(null, null, 1951, MatchMode.EXACT, false),
+                new SearchQuery("Other", null, null, MatchMode.PREFIX, false));
+        List<Predicate<Book>> filters = List.of(b -> b.getYearPublished() == 1951,
+                b -> b.getTitle().startsWith("Other"));
+        for (int q = 0; q < queries.size(); q++) {
+            List<Integer> expected = library.getAllBooks().stream().filter(filters.get(q))
+                    .sorted(byTitle).map(Book::getID).toList();
+            List<Integer> paged = new ArrayList<>();
+            String cursor = null;
+            do {
+                int skip = cursor == null ? 1 : 0;
+                BookPage page = library.searchSortedPage(SortOrder.TITLE, queries.get(q), cursor, skip, 4);
+                page.getBooks().forEach(b -> paged.add(b.getID()));
+                cursor = page.getNextCursor();
+            } while (cursor != null);
+            assertEquals(expected.subList(1, expected.size()), paged);
+        }
+        assertEquals(0, library.getSearchCacheStats().getHits() + library.getSearchCacheStats().getMisses());
+
+        SearchQuery dune = new SearchQuery("Dune", null, null, MatchMode.PREFIX, false);
+        BookPage page = library.searchSortedPage(SortOrder.TITLE, dune, null, 0, 3);
+        assertEquals(List.of("Dune 0", "Dune 100", "Dune 150"), page.getBooks().stream().map(Book::getTitle).toList());
+        assertEquals(1, library.getSearchCacheStats().getMisses());
+    }
+
+    // TC-113 Verify history times survive delta encoding across key records, days and a clock set back
+    @Test
+    void tc113_historyTimesDeltaEncoded() {
+        MutableClock clock = new MutableClock(Instant.parse("2024-01-01T23:00:00Z"));
+        library = new Library(clock);
+        library.addSingleBook(100, "Dune", "Herbert", 1965);
+        library.setCurrentUser(new Domain.User("alice"));
+        List<Long> times = new ArrayList<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 150; i++) {
+            clock.advance(Duration.ofMillis(i == 100 ? -5000 : i % 50 == 49 ? 90_000_000 : random.nextInt(200)));
+            times.add(clock.millis());
+            if (i % 2 == 0) {
+                library.borrowBook(1);
+            } else {
+                library.returnBook(1);
+            }
+        }
+        List<LoanEvent> events = library.getBookHistory(1);
+        assertEquals(times, events.stream().map(LoanEvent::getTime).toList());
+        assertEquals("borrow", events.get(148).getOperation());
+        assertEquals("alice", events.get(149).getUsername());
+    }
 }